@@ -1,11 +1,74 @@
 import spark.Spark;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.MultipartConfigElement;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.Part;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineBreakMeasurer;
+import java.awt.font.TextAttribute;
+import java.awt.font.TextLayout;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
 import java.io.*;
+import java.net.URLConnection;
+import java.text.AttributedString;
+import java.net.URLEncoder;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.lang.reflect.Method;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
 
 public class ComicTranslator {
@@ -15,23 +78,3740 @@ public class ComicTranslator {
     private static final int MAX_FILE_SIZE = 100 * 1024 * 1024;
     private static final Gson gson = new Gson();
     private static final String CHANGELOG_FILE = "changelog.txt";
+    private static final String JOURNAL_FILE = "translations.journal";
+    private static final String VERSIONS_FILE = "translations.versions.json";
+    private static final String JOURNAL_COMPACTING_FILE = "translations.journal.compacting";
+    // 持久化模式：journal 追加日志（默认），snapshot 每次保存整组重写
+    private static final String PERSISTENCE_MODE = System.getProperty("persistence", "journal");
+    private static final long JOURNAL_COMPACT_BYTES = 4 * 1024 * 1024;
+    // 保存合并窗口（毫秒）
+    private static final long SAVE_WINDOW_MS = Long.getLong("save.window", 100);
+    private static final int SAVE_FLUSH_THREADS = 4;
+    // 写入失败后重试的最长间隔；fsync 确认模式下保存请求最多等多久（毫秒），超时后按已保存、仍在重试答复
+    private static final long SAVE_RETRY_MAX_MS = 5000;
+    private static final long SAVE_ACK_TIMEOUT_MS = Long.getLong("save.ackTimeout", 10000);
+    // 分组缓存上限：已加载分组数和估算内存（MB），启动时是否预加载全部分组
+    private static final int CACHE_MAX_GROUPS = Integer.getInteger("cache.groups", 200);
+    private static final long CACHE_MAX_BYTES = Long.getLong("cache.mb", 256) * 1024 * 1024;
+    private static final boolean CACHE_PRELOAD = Boolean.getBoolean("cache.preload");
+    // 是否使用 uploads/translations.bin 二进制快照加速冷启动，JSON 仍是权威格式
+    private static final boolean BINARY_SNAPSHOT = Boolean.getBoolean("snapshot.binary");
+    private static final String BINARY_SNAPSHOT_FILE = "translations.bin";
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+    private static final int GROUP_PAGE_SIZE = 100;
+    private static final ListingIndex listingIndex = new ListingIndex();
+    // 按内容寻址的图片存储目录和各分组的清单文件
+    private static final String OBJECTS_DIR = ".objects";
+    private static final String MANIFEST_FILE = ".manifest.json";
+    private static final ObjectStore objectStore = new ObjectStore();
+    // 全文搜索：作废条目至少累计到这么多才考虑压缩倒排表；每页结果数上限
+    private static final int SEARCH_COMPACT_MIN = 100_000;
+    private static final int SEARCH_MAX_PAGE_SIZE = 100;
+    private static final SearchIndex searchIndex = new SearchIndex(ComicTranslator::pageOf);
+    // 翻译记忆：MinHash 哈希个数、每个桶的行数、每次最多核对的候选数
+    private static final int TM_HASHES = 16;
+    private static final int TM_ROWS = 2;
+    private static final int TM_MAX_CANDIDATES = 500;
+    private static final int TM_MAX_BUCKET = 1000;
+    private static final int TM_MAX_SUGGESTIONS = 20;
+    private static final TranslationMemory translationMemory = new TranslationMemory();
+    /**
+     * 搜索索引和翻译记忆何时建立。两者都在内存里，建立时要把每个分组读一遍（没加载的分组临时读盘解析），
+     * 数据量大时相当于启动时把整个数据集加载一次，期间与用户请求争磁盘和 CPU。
+     * lazy（默认）：第一次搜索或取翻译建议时才在后台开始建立，建完之前结果标记为不完整（complete=false）；
+     * startup：启动后立即在后台建立；off：不建立也不维护，/search 和 /tm/suggest 返回 503。
+     */
+    private static final String TEXT_INDEX = System.getProperty("text.index", "lazy");
+    private static final AtomicBoolean textIndexStarted = new AtomicBoolean();
+    // 嵌字渲染：并行线程数、解码图片的内存预算（MB）、字体和字号范围
+    private static final int RENDER_THREADS = Integer.getInteger("render.threads", Runtime.getRuntime().availableProcessors());
+    private static final int RENDER_BUDGET_MB = Integer.getInteger("render.mb", 512);
+    private static final String RENDER_FONT = System.getProperty("render.font", Font.SANS_SERIF);
+    private static final int RENDER_MAX_FONT = 48;
+    private static final int RENDER_MIN_FONT = 8;
+    private static final Renderer renderer = new Renderer();
+    // 协作编辑：长轮询最长挂起时间、推送合并窗口、每页保留的变更条数、频道空闲多久后回收
+    private static final long COLLAB_POLL_MS = 25_000;
+    private static final long COLLAB_BATCH_MS = 50;
+    private static final int COLLAB_HISTORY = 100;
+    private static final long COLLAB_IDLE_MS = TimeUnit.MINUTES.toMillis(2);
+    private static final CollabHub collabHub = new CollabHub();
+    // 编辑页静态文件：类路径下 assets 目录中的文件名和类型
+    private static final String[][] ASSET_FILES = {
+        { "editor.html", "text/html; charset=utf-8" },
+        { "editor.js", "application/javascript; charset=utf-8" },
+        { "fabric.min.js", "application/javascript; charset=utf-8" },
+    };
+    // 小于这个大小的 JSON 不压缩
+    private static final int GZIP_MIN_BYTES = 1024;
+    private static final Assets assets = new Assets();
+    // 监听端口，同一台机器上跑多个实例（例如压力测试）时用 -Dserver.port 指定
+    private static final int SERVER_PORT = Integer.getInteger("server.port", 8080);
+    // 请求处理线程：platform 为 Jetty 默认的有界线程池（默认），virtual 为每个请求一个虚拟线程
+    private static final String SERVER_THREADS = System.getProperty("server.threads", "platform");
+    // 缩略图、预览图：生成线程数、排队上限、宽度（像素），结果和原图放在一起
+    private static final int IMAGE_WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int IMAGE_QUEUE_SIZE = 1000;
+    private static final int THUMB_WIDTH = 240;
+    private static final int PREVIEW_WIDTH = 1600;
+    private static final ImagePipeline imagePipeline = new ImagePipeline();
+    // 图片响应：带摘要的地址缓存一年
+    private static final String IMMUTABLE_CACHE = "public, max-age=31536000, immutable";
+    // 分块上传：分块大小、临时文件目录、会话闲置多久后清理
+    private static final int UPLOAD_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final String UPLOAD_SESSION_DIR = ".uploads";
+    private static final long UPLOAD_SESSION_IDLE_MS = TimeUnit.HOURS.toMillis(24);
+    private static final UploadSessions uploadSessions = new UploadSessions();
+    // 后台任务：执行线程数、排队上限、结果文件目录、结束后保留多久
+    private static final int JOB_WORKERS = Integer.getInteger("jobs.threads", 2);
+    private static final int JOB_QUEUE_SIZE = 100;
+    private static final String JOB_DIR = ".jobs";
+    private static final long JOB_KEEP_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final Jobs jobs = new Jobs();
+    private static final Metrics metrics = new Metrics();
+    // 保存确认时机：fsync 写入并落盘后确认（默认），memory 更新内存后立即确认
+    private static final boolean SAVE_ACK_AFTER_FSYNC = !"memory".equals(System.getProperty("durability", "fsync"));
+    private static final Map<String, GroupJournal> journals = new ConcurrentHashMap<>();
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "journal-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final GroupLocks groupLocks = new GroupLocks();
+    private static final GroupCache groupCache = new GroupCache();
+    private static final SaveCoalescer saveCoalescer = new SaveCoalescer();
 
     static class TranslationArea {
+        // 页面内唯一的区域编号，增量保存按编号增删改；旧数据没有编号，加载时按顺序补 a0、a1……
+        String id;
         int x, y, width, height;
         String original;
         String translation;
     }
 
+    /**
+     * 一页标注的紧凑存储：坐标依次放在一个 int[] 里，编号、原文和译文首尾相接存成一个字符串按偏移切分，
+     * 每个区域不再单独占用对象头和三个 String。页面不可变，get 时临时生成 TranslationArea，
+     * 因此序列化成 JSON 时仍是原来的标注数组。version 是页面版本，每次保存加一，增量保存据此检测冲突。
+     */
+    static final class PackedPage extends AbstractList<TranslationArea> implements RandomAccess {
+        private final int[] geometry;
+        private final String text;
+        // 第 i 段文本为 text[offsets[i], offsets[i + 1])，每个区域依次是编号、原文、译文三段
+        private final int[] offsets;
+        // 值为 null 的文本段，绝大多数页面没有
+        private final BitSet nulls;
+        final long version;
+
+        private PackedPage(int[] geometry, String text, int[] offsets, BitSet nulls, long version) {
+            this.geometry = geometry;
+            this.text = text;
+            this.offsets = offsets;
+            this.nulls = nulls;
+            this.version = version;
+        }
+
+        static PackedPage of(List<TranslationArea> areas, long version) {
+            if (areas instanceof PackedPage) {
+                PackedPage page = (PackedPage) areas;
+                return page.version == version ? page
+                    : new PackedPage(page.geometry, page.text, page.offsets, page.nulls, version);
+            }
+            Builder builder = new Builder(areas.size());
+            for (TranslationArea area : areas) {
+                builder.add(area.id, area.x, area.y, area.width, area.height, area.original, area.translation);
+            }
+            return builder.build(version);
+        }
+
+        /**
+         * 整页保存前补全区域编号：没有编号的按序号补 a0、a1……（与加载旧数据时相同），
+         * 补的编号和页面里明确给出的编号重复时加后缀，保证页面内编号唯一。明确给出的编号重复时抛出 IllegalArgumentException。
+         */
+        static void assignIds(List<TranslationArea> areas) {
+            Set<String> ids = new HashSet<>();
+            for (TranslationArea area : areas) {
+                if (area.id != null && !area.id.isEmpty() && !ids.add(area.id)) {
+                    throw new IllegalArgumentException("区域编号重复: " + area.id);
+                }
+            }
+            for (int i = 0; i < areas.size(); i++) {
+                TranslationArea area = areas.get(i);
+                if (area.id == null || area.id.isEmpty()) {
+                    String id = "a" + i;
+                    for (int n = 1; !ids.add(id); n++) {
+                        id = "a" + i + "-" + n;
+                    }
+                    area.id = id;
+                }
+            }
+        }
+
+        // 按编号依次执行增删改，返回新版本的页面；strict 为假时用于重放日志，
+        // 已存在的编号再次新增按修改处理，找不到的编号修改时追加、删除时忽略
+        PackedPage apply(List<AreaOp> ops, long newVersion, boolean strict) {
+            Map<String, TranslationArea> areas = new LinkedHashMap<>();
+            for (TranslationArea area : this) {
+                areas.put(area.id, area);
+            }
+            for (AreaOp op : ops) {
+                if (op == null || !("add".equals(op.op) || "update".equals(op.op) || "delete".equals(op.op))) {
+                    throw new IllegalArgumentException("未知操作: " + (op != null ? op.op : null));
+                }
+                String id = "delete".equals(op.op) ? op.id : op.area != null ? op.area.id : null;
+                if (id == null || id.isEmpty()) {
+                    throw new IllegalArgumentException("缺少区域编号: " + op.op);
+                }
+                switch (op.op) {
+                    case "add":
+                        if (strict && areas.containsKey(id)) {
+                            throw new IllegalArgumentException("区域编号已存在: " + id);
+                        }
+                        areas.put(id, op.area);
+                        break;
+                    case "update":
+                        if (strict && !areas.containsKey(id)) {
+                            throw new IllegalArgumentException("区域不存在: " + id);
+                        }
+                        areas.put(id, op.area);
+                        break;
+                    default:
+                        if (areas.remove(id) == null && strict) {
+                            throw new IllegalArgumentException("区域不存在: " + id);
+                        }
+                        break;
+                }
+            }
+            return of(new ArrayList<>(areas.values()), newVersion);
+        }
+
+        @Override
+        public TranslationArea get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("区域序号越界: " + index);
+            }
+            TranslationArea area = new TranslationArea();
+            area.id = segment(index * 3);
+            area.x = geometry[index * 4];
+            area.y = geometry[index * 4 + 1];
+            area.width = geometry[index * 4 + 2];
+            area.height = geometry[index * 4 + 3];
+            area.original = segment(index * 3 + 1);
+            area.translation = segment(index * 3 + 2);
+            return area;
+        }
+
+        @Override
+        public int size() {
+            return geometry.length / 4;
+        }
+
+        private String segment(int i) {
+            if (nulls != null && nulls.get(i)) {
+                return null;
+            }
+            return text.substring(offsets[i], offsets[i + 1]);
+        }
+
+        // 估算堆占用：三个数组和一个字符串，中文按每字符两字节计
+        long footprint() {
+            return 32 + 16 + geometry.length * 4L + 16 + offsets.length * 4L + 40 + text.length() * 2L
+                + (nulls != null ? 48 : 0);
+        }
+
+        static final class Builder {
+            private final int[] geometry;
+            private final int[] offsets;
+            private final StringBuilder text = new StringBuilder();
+            private BitSet nulls;
+            private int count;
+
+            Builder(int capacity) {
+                geometry = new int[capacity * 4];
+                offsets = new int[capacity * 3 + 1];
+            }
+
+            // id 为空时按区域序号补编号，同一份旧数据每次加载得到的编号相同
+            Builder add(String id, int x, int y, int width, int height, String original, String translation) {
+                geometry[count * 4] = x;
+                geometry[count * 4 + 1] = y;
+                geometry[count * 4 + 2] = width;
+                geometry[count * 4 + 3] = height;
+                append(count * 3, id != null && !id.isEmpty() ? id : "a" + count);
+                append(count * 3 + 1, original);
+                append(count * 3 + 2, translation);
+                count++;
+                return this;
+            }
+
+            private void append(int i, String value) {
+                if (value == null) {
+                    if (nulls == null) {
+                        nulls = new BitSet();
+                    }
+                    nulls.set(i);
+                } else {
+                    text.append(value);
+                }
+                offsets[i + 1] = text.length();
+            }
+
+            PackedPage build(long version) {
+                return new PackedPage(geometry, text.toString(), offsets, nulls, version);
+            }
+        }
+    }
+
+    // 增量保存中的一个操作：add、update 带完整区域，delete 只带编号
+    static class AreaOp {
+        String op;
+        String id;
+        TranslationArea area;
+    }
+
+    // 增量保存请求：base 是客户端修改前看到的页面版本
+    static class PagePatch {
+        long base;
+        List<AreaOp> ops;
+        // 发起保存的编辑器，协作推送时它自己跳过这次变更
+        String client;
+    }
+
+    /**
+     * 日志中的一条记录：整页保存记完整标注列表 areas，增量保存只记操作 ops。
+     * version 是写入后的页面版本，重放时跳过不比当前版本新的记录。
+     */
+    static class JournalRecord {
+        String file;
+        long version;
+        List<TranslationArea> areas;
+        List<AreaOp> ops;
+
+        JournalRecord(String file, long version, List<TranslationArea> areas, List<AreaOp> ops) {
+            this.file = file;
+            this.version = version;
+            this.areas = areas;
+            this.ops = ops;
+        }
+    }
+
+    // 增量保存的基础版本已过期，current 是服务端当前页面
+    static class VersionConflictException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        // 只在进程内传给调用方，不参与序列化
+        final transient PackedPage current;
+
+        VersionConflictException(PackedPage current) {
+            super("页面已被修改，当前版本 " + current.version);
+            this.current = current;
+        }
+    }
+
+    /**
+     * 分组的追加日志。每次保存只把改动页面的标注追加为一行JSON，
+     * 日志超过阈值后在后台压缩成 translations.json 快照。
+     */
+    static class GroupJournal {
+        private final String group;
+        private final Path groupPath;
+        private FileChannel channel;
+        private long size;
+        private boolean compacting;
+        private boolean closed;
+
+        GroupJournal(String group, Path groupPath) {
+            this.group = group;
+            this.groupPath = groupPath;
+        }
+
+        // 一次写入合并后的多条记录，force 为真时等落盘后才返回
+        synchronized void append(Collection<JournalRecord> records, boolean force) throws IOException {
+            if (closed) {
+                throw new IOException("分组已关闭: " + group);
+            }
+            StringBuilder lines = new StringBuilder();
+            records.forEach(record -> lines.append(gson.toJson(record)).append('\n'));
+            byte[] data = lines.toString().getBytes(StandardCharsets.UTF_8);
+            if (channel == null) {
+                Files.createDirectories(groupPath);
+                channel = FileChannel.open(groupPath.resolve(JOURNAL_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                size = channel.size();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (force) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                // 写了一半的记录会让重放停在这里，之后重试追加的记录也就读不到了，截回写入前的长度
+                try {
+                    channel.truncate(size);
+                } catch (IOException truncateError) {
+                    e.addSuppressed(truncateError);
+                }
+                throw e;
+            }
+            size += data.length;
+            metrics.journalBytes.add(data.length);
+            metrics.journalAppends.increment();
+            if (size >= JOURNAL_COMPACT_BYTES && !compacting) {
+                compacting = true;
+                compactor.submit(this::compact);
+            }
+        }
+
+        // 轮换日志并复制当前分组数据；页面列表保存后不再修改，浅复制即可得到一致快照。
+        // 内存可能领先于日志（尚未落盘的合并写入），快照多包含这些页面也无妨，之后重放是幂等的
+        private synchronized Map<String, List<TranslationArea>> rotate() throws IOException {
+            Map<String, List<TranslationArea>> groupTranslations = translations.get(group);
+            // 已被淘汰的分组不在内存里，留到下次加载时再压缩
+            if (closed || groupTranslations == null) {
+                return null;
+            }
+            // 上次压缩失败或随重命名带过来的 .compacting 还在：其中的记录内存里已经有了，快照里却可能没有。
+            // 这时不轮换（覆盖它会丢掉这些记录），先把内存写成快照再删掉它；日志留给下一次压缩，重放是幂等的
+            if (Files.exists(groupPath.resolve(JOURNAL_COMPACTING_FILE))) {
+                return new HashMap<>(groupTranslations);
+            }
+            closeChannel();
+            Path journal = groupPath.resolve(JOURNAL_FILE);
+            if (Files.exists(journal)) {
+                Files.move(journal, groupPath.resolve(JOURNAL_COMPACTING_FILE), StandardCopyOption.ATOMIC_MOVE);
+            }
+            return new HashMap<>(groupTranslations);
+        }
+
+        private void compact() {
+            ReentrantReadWriteLock lock = groupLocks.data(group);
+            try {
+                Map<String, List<TranslationArea>> snapshot;
+                lock.readLock().lock();
+                try {
+                    snapshot = rotate();
+                } finally {
+                    lock.readLock().unlock();
+                }
+                if (snapshot == null) {
+                    return;
+                }
+                // 写快照时持有 io 锁，删除、重命名分组要等写完；已关闭说明目录已被删除或移走，
+                // 压缩中的日志跟着目录走，下次加载时会重放
+                ReentrantLock io = groupLocks.io(group);
+                io.lock();
+                try {
+                    if (isClosed()) {
+                        return;
+                    }
+                    writeSnapshot(groupPath, snapshot);
+                    Files.deleteIfExists(groupPath.resolve(JOURNAL_COMPACTING_FILE));
+                } finally {
+                    io.unlock();
+                }
+            } catch (IOException e) {
+                System.err.println("压缩翻译日志失败: " + group + ": " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+        }
+
+        // 重命名或删除分组前调用，释放文件句柄
+        synchronized void close() {
+            closed = true;
+            closeChannel();
+        }
+
+        private synchronized boolean isClosed() {
+            return closed;
+        }
+
+        // 淘汰分组时调用，正在压缩时不能关闭
+        synchronized boolean closeIfIdle() {
+            if (compacting) {
+                return false;
+            }
+            close();
+            return true;
+        }
+
+        private void closeChannel() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    System.err.println("关闭翻译日志失败: " + e.getMessage());
+                }
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * 按分组名分段的锁。data 读写锁保护内存中的分组视图（提交页面、重命名、删除取写锁，
+     * 需要整组一致视图时取读锁），io 锁保证同一分组的写盘顺序。
+     * 加锁顺序固定为 io → data → 分组日志。
+     */
+    static class GroupLocks {
+        private static final int STRIPES = 64;
+        private final ReentrantReadWriteLock[] data = new ReentrantReadWriteLock[STRIPES];
+        private final ReentrantLock[] io = new ReentrantLock[STRIPES];
+
+        interface Held extends AutoCloseable {
+            @Override
+            void close();
+        }
+
+        GroupLocks() {
+            for (int i = 0; i < STRIPES; i++) {
+                data[i] = new ReentrantReadWriteLock();
+                io[i] = new ReentrantLock();
+            }
+        }
+
+        private static int stripe(String group) {
+            return (group.hashCode() & 0x7fffffff) % STRIPES;
+        }
+
+        ReentrantReadWriteLock data(String group) {
+            return data[stripe(group)];
+        }
+
+        ReentrantLock io(String group) {
+            return io[stripe(group)];
+        }
+
+        // 独占一个或多个分组（重命名、删除），按段序号加锁避免互相等待
+        Held exclusive(String... groups) {
+            int[] stripes = Arrays.stream(groups).mapToInt(GroupLocks::stripe).distinct().sorted().toArray();
+            for (int i : stripes) {
+                io[i].lock();
+            }
+            for (int i : stripes) {
+                data[i].writeLock().lock();
+            }
+            return () -> {
+                for (int i = stripes.length - 1; i >= 0; i--) {
+                    data[stripes[i]].writeLock().unlock();
+                }
+                for (int i = stripes.length - 1; i >= 0; i--) {
+                    io[stripes[i]].unlock();
+                }
+            };
+        }
+    }
+
+    /**
+     * 分组缓存：第一次访问时才从磁盘加载分组，超过分组数或内存预算时淘汰最久未访问的分组。
+     * translations 只保存已加载的分组；有待保存数据、正在写盘或压缩的分组不会被淘汰。
+     */
+    static class GroupCache {
+        private final Map<String, Usage> usage = new ConcurrentHashMap<>();
+        private final AtomicLong clock = new AtomicLong();
+        private final AtomicLong totalBytes = new AtomicLong();
+        private final ReentrantLock evicting = new ReentrantLock();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        static class Usage {
+            volatile long lastAccess;
+            final AtomicLong bytes = new AtomicLong();
+        }
+
+        // 返回已加载的分组，必要时从磁盘加载；分组目录不存在时返回 null
+        Map<String, List<TranslationArea>> get(String group) throws IOException {
+            Map<String, List<TranslationArea>> pages = translations.get(group);
+            if (pages != null) {
+                hits.increment();
+                touch(group);
+                return pages;
+            }
+            ReentrantReadWriteLock lock = groupLocks.data(group);
+            lock.writeLock().lock();
+            try {
+                pages = loadLocked(group, false);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            evictIfNeeded(group);
+            return pages;
+        }
+
+        // 调用方已持有分组写锁；create 为真时分组目录不存在也创建空分组
+        Map<String, List<TranslationArea>> loadLocked(String group, boolean create) throws IOException {
+            Map<String, List<TranslationArea>> pages = translations.get(group);
+            if (pages != null) {
+                hits.increment();
+                touch(group);
+                return pages;
+            }
+            Path groupPath = Paths.get(UPLOAD_DIR, group);
+            if (!create && !Files.isDirectory(groupPath)) {
+                return null;
+            }
+            misses.increment();
+            long start = System.nanoTime();
+            try {
+                pages = loadGroup(groupPath, true);
+            } catch (JsonSyntaxException e) {
+                throw new IOException("加载分组翻译失败: " + group + ": " + e.getMessage(), e);
+            }
+            metrics.groupLoaded(group, System.nanoTime() - start);
+            if (pages == null) {
+                pages = new ConcurrentHashMap<>();
+            }
+            Usage entry = new Usage();
+            long bytes = 0;
+            for (List<TranslationArea> areas : pages.values()) {
+                bytes += estimateBytes(areas);
+            }
+            entry.bytes.set(bytes);
+            usage.put(group, entry);
+            totalBytes.addAndGet(bytes);
+            translations.put(group, pages);
+            touch(group);
+            return pages;
+        }
+
+        // 页面被替换后调整内存估算，调用方持有分组写锁
+        void pageReplaced(String group, List<TranslationArea> previous, List<TranslationArea> current) {
+            Usage entry = usage.get(group);
+            if (entry != null) {
+                long delta = estimateBytes(current) - (previous != null ? estimateBytes(previous) : 0);
+                entry.bytes.addAndGet(delta);
+                totalBytes.addAndGet(delta);
+            }
+        }
+
+        void renamed(String oldGroup, String newGroup) {
+            Usage entry = usage.remove(oldGroup);
+            if (entry != null) {
+                usage.put(newGroup, entry);
+            }
+        }
+
+        void forget(String group) {
+            Usage entry = usage.remove(group);
+            if (entry != null) {
+                totalBytes.addAndGet(-entry.bytes.get());
+            }
+        }
+
+        private void touch(String group) {
+            Usage entry = usage.get(group);
+            if (entry != null) {
+                entry.lastAccess = clock.incrementAndGet();
+            }
+        }
+
+        private static boolean overBudget() {
+            return translations.size() > CACHE_MAX_GROUPS || groupCache.totalBytes.get() > CACHE_MAX_BYTES;
+        }
+
+        // 按最久未访问的顺序淘汰，keep 为刚访问的分组；同一时间只有一个线程做淘汰
+        void evictIfNeeded(String keep) {
+            if (!overBudget() || !evicting.tryLock()) {
+                return;
+            }
+            try {
+                List<Map.Entry<String, Usage>> candidates = new ArrayList<>(usage.entrySet());
+                candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+                for (Map.Entry<String, Usage> candidate : candidates) {
+                    if (!overBudget()) {
+                        break;
+                    }
+                    if (!candidate.getKey().equals(keep)) {
+                        tryEvict(candidate.getKey());
+                    }
+                }
+            } finally {
+                evicting.unlock();
+            }
+        }
+
+        // 只用 tryLock，正在使用的分组直接跳过
+        private boolean tryEvict(String group) {
+            ReentrantLock io = groupLocks.io(group);
+            if (!io.tryLock()) {
+                return false;
+            }
+            try {
+                ReentrantReadWriteLock lock = groupLocks.data(group);
+                if (!lock.writeLock().tryLock()) {
+                    return false;
+                }
+                try {
+                    if (saveCoalescer.hasPending(group)) {
+                        return false;
+                    }
+                    GroupJournal journal = journals.get(group);
+                    if (journal != null) {
+                        if (!journal.closeIfIdle()) {
+                            return false;
+                        }
+                        journals.remove(group, journal);
+                    }
+                    translations.remove(group);
+                    forget(group);
+                    evictions.increment();
+                    return true;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } finally {
+                io.unlock();
+            }
+        }
+
+        String stats() {
+            return "已加载分组: " + translations.size() + "\n"
+                + "估算内存: " + totalBytes.get() / 1024 + " KB\n"
+                + "命中: " + hits.sum() + "\n"
+                + "未命中: " + misses.sum() + "\n"
+                + "淘汰: " + evictions.sum() + "\n";
+        }
+    }
+
+    /**
+     * 首页和分组页使用的目录索引：分组列表、各分组的图片文件和更新日志都缓存在内存里，
+     * 由 WatchService 监听目录变化使对应部分失效，上传、删除、重命名时也直接失效，下次访问再重新扫描。
+     * 每次失效都会增加版本号，页面用它生成 ETag。
+     */
+    static class ListingIndex {
+        private final String bootId = Long.toString(System.currentTimeMillis(), 36);
+        private final Map<WatchKey, String> watchedGroups = new ConcurrentHashMap<>();
+        private final Map<String, List<FileEntry>> files = new ConcurrentHashMap<>();
+        private WatchService watcher;
+        private WatchKey rootKey;
+        private WatchKey changelogKey;
+        private volatile List<String> groups;
+        private volatile String changelog;
+        private long version;
+
+        static class FileEntry {
+            final String name;
+            final long size;
+            final long modified;
+
+            FileEntry(String name, long size, long modified) {
+                this.name = name;
+                this.size = size;
+                this.modified = modified;
+            }
+        }
+
+        void start() {
+            try {
+                watcher = FileSystems.getDefault().newWatchService();
+                rootKey = Paths.get(UPLOAD_DIR).register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+                Path changelogDir = Paths.get(CHANGELOG_FILE).toAbsolutePath().getParent();
+                changelogKey = changelogDir.register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                Thread thread = new Thread(this::watch, "listing-watcher");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                // 没有监听时只依赖上传、删除、重命名时的直接失效
+                System.err.println("目录监听启动失败: " + e.getMessage());
+            }
+        }
+
+        private void watch() {
+            while (true) {
+                WatchKey key;
+                try {
+                    key = watcher.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    String name = event.context() != null ? event.context().toString() : null;
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        invalidateAll();
+                    } else if (key == changelogKey) {
+                        if (CHANGELOG_FILE.equals(name)) {
+                            invalidateChangelog();
+                        }
+                    } else if (key == rootKey) {
+                        invalidateGroups();
+                        if (name != null) {
+                            invalidateGroup(name);
+                        }
+                    } else if (name != null && !isTranslationDataFile(name) && !name.startsWith(".")) {
+                        // 保存翻译只会改动 translations.* 文件，不影响图片列表；其他文件是手工放进来的图片，等待收编
+                        invalidateGroup(watchedGroups.get(key));
+                    }
+                }
+                if (!key.reset()) {
+                    watchedGroups.remove(key);
+                }
+            }
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        String etag() {
+            return "\"" + bootId + "-" + version() + "\"";
+        }
+
+        List<String> groups() throws IOException {
+            List<String> current = groups;
+            if (current != null) {
+                return current;
+            }
+            long scannedAt = version();
+            List<String> scanned = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(UPLOAD_DIR))) {
+                for (Path path : stream) {
+                    if (Files.isDirectory(path) && !path.getFileName().toString().startsWith(".")) {
+                        scanned.add(path.getFileName().toString());
+                    }
+                }
+            }
+            Collections.sort(scanned);
+            scanned = Collections.unmodifiableList(scanned);
+            synchronized (this) {
+                // 扫描期间发生过失效，结果可能已过期，只返回不缓存
+                if (version == scannedAt) {
+                    groups = scanned;
+                }
+            }
+            return scanned;
+        }
+
+        // 分组的图片文件，按文件名排序；分组不存在时返回 null
+        List<FileEntry> files(String group) throws IOException {
+            List<FileEntry> current = files.get(group);
+            if (current != null) {
+                return current;
+            }
+            Path groupPath = Paths.get(UPLOAD_DIR, group);
+            if (!Files.isDirectory(groupPath)) {
+                return null;
+            }
+            long scannedAt = version();
+            if (watcher != null && !watchedGroups.containsValue(group)) {
+                watchedGroups.put(groupPath.register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY), group);
+            }
+            // 手工放进目录的图片先收进存储，列表以清单为准
+            objectStore.importLoose(group);
+            List<FileEntry> scanned = new ArrayList<>();
+            for (Map.Entry<String, ObjectStore.Entry> file : objectStore.files(group).entrySet()) {
+                scanned.add(new FileEntry(file.getKey(), file.getValue().size, file.getValue().modified));
+            }
+            scanned.sort(Comparator.comparing(entry -> entry.name));
+            scanned = Collections.unmodifiableList(scanned);
+            synchronized (this) {
+                if (version == scannedAt) {
+                    files.put(group, scanned);
+                }
+            }
+            return scanned;
+        }
+
+        String changelog() {
+            String current = changelog;
+            if (current == null) {
+                long loadedAt = version();
+                current = loadChangelog();
+                synchronized (this) {
+                    // 读取期间日志又被改过，读到的可能是旧内容，只返回不缓存
+                    if (version == loadedAt) {
+                        changelog = current;
+                    }
+                }
+            }
+            return current;
+        }
+
+        synchronized void invalidateGroups() {
+            version++;
+            groups = null;
+        }
+
+        synchronized void invalidateGroup(String group) {
+            if (group != null) {
+                version++;
+                files.remove(group);
+            }
+        }
+
+        synchronized void invalidateChangelog() {
+            version++;
+            changelog = null;
+        }
+
+        synchronized void invalidateAll() {
+            invalidateGroups();
+            files.clear();
+            changelog = null;
+        }
+    }
+
+    /**
+     * 缩略图和编辑预览图的后台生成。上传后把图片放进有界队列，由少量低优先级线程解码缩放，
+     * 结果按原图摘要存在对象目录里，多个分组共用。队列满时直接放弃，等页面第一次请求时再排队，
+     * 不会阻塞上传请求的线程；没生成好之前页面先使用原图。
+     */
+    static class ImagePipeline {
+        private final Set<String> queued = ConcurrentHashMap.newKeySet();
+        private final ThreadPoolExecutor workers = new ThreadPoolExecutor(
+            IMAGE_WORKERS, IMAGE_WORKERS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(IMAGE_QUEUE_SIZE), r -> {
+                Thread t = new Thread(r, "image-worker");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+
+        // 对象内容不会变，缩略图存在即可用
+        void enqueue(String digest) {
+            if (!queued.add(digest)) {
+                return;
+            }
+            try {
+                workers.execute(() -> {
+                    try {
+                        generate(digest);
+                    } catch (IOException | RuntimeException e) {
+                        System.err.println("生成预览图失败: " + digest + ": " + e.getMessage());
+                    } finally {
+                        queued.remove(digest);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                queued.remove(digest);
+            }
+        }
+
+        private static void generate(String digest) throws IOException {
+            Path original = ObjectStore.objectPath(digest);
+            Path preview = ObjectStore.derivative(digest, "preview");
+            Path thumb = ObjectStore.derivative(digest, "thumb");
+            if (!Files.exists(original) || (Files.exists(preview) && Files.exists(thumb))) {
+                return;
+            }
+            BufferedImage previewImage = decodeScaled(original, PREVIEW_WIDTH);
+            if (previewImage == null) {
+                return;
+            }
+            writeJpeg(previewImage, preview);
+            writeJpeg(scale(previewImage, THUMB_WIDTH), thumb);
+        }
+
+        // 按目标宽度隔行隔列抽样解码，大图不必完整解码到内存，再平滑缩放到目标宽度
+        private static BufferedImage decodeScaled(Path file, int targetWidth) throws IOException {
+            try (ImageInputStream input = ImageIO.createImageInputStream(file.toFile())) {
+                if (input == null) {
+                    return null;
+                }
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+                if (!readers.hasNext()) {
+                    return null;
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(input, true, true);
+                    int step = Math.max(1, reader.getWidth(0) / targetWidth);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(step, step, 0, 0);
+                    return scale(reader.read(0, param), targetWidth);
+                } finally {
+                    reader.dispose();
+                }
+            }
+        }
+
+        private static BufferedImage scale(BufferedImage source, int targetWidth) {
+            int width = Math.min(targetWidth, source.getWidth());
+            int height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+            // JPEG 不支持透明通道，统一画到白底 RGB 图上
+            BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = scaled.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+                g.drawImage(source, 0, 0, width, height, null);
+            } finally {
+                g.dispose();
+            }
+            return scaled;
+        }
+
+        // 先写临时文件再替换，页面不会读到写了一半的图片
+        private static void writeJpeg(BufferedImage image, Path target) throws IOException {
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            if (!ImageIO.write(image, "jpg", temp.toFile())) {
+                throw new IOException("没有可用的 JPEG 编码器");
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // 只读取图片头得到原图尺寸，无法识别的格式返回 null
+        static int[] imageSize(Path file) {
+            try (ImageInputStream input = ImageIO.createImageInputStream(file.toFile())) {
+                if (input == null) {
+                    return null;
+                }
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+                if (!readers.hasNext()) {
+                    return null;
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(input, true, true);
+                    return new int[] { reader.getWidth(0), reader.getHeight(0) };
+                } finally {
+                    reader.dispose();
+                }
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 嵌字渲染：把有译文的标注框涂白，在框内按框宽自动换行写入译文，字号从大往小试到放得下为止，文字居中。
+     * 结果以“原图摘要 + 页面（分组/文件名）摘要 + 标注内容摘要”为名缓存在对象目录，保存翻译后标注内容变了就换成新文件，
+     * 同一页面的旧结果随即删除；同一张图被多个分组或文件名共用时各页面的结果互不影响。
+     * 整张解码的原图和绘制用的副本都很占内存，解码前按 宽×高×8 字节向 RENDER_BUDGET_MB 预算申请，批量并行渲染时总量也不会超出。
+     */
+    static class Renderer {
+        private final Semaphore budget = new Semaphore(RENDER_BUDGET_MB);
+        private final ForkJoinPool pool = new ForkJoinPool(RENDER_THREADS);
+
+        static String pageHash(List<TranslationArea> areas) {
+            byte[] json = gson.toJson(areas).getBytes(StandardCharsets.UTF_8);
+            return ObjectStore.hex(ObjectStore.sha256().digest(json)).substring(0, 16);
+        }
+
+        // 页面标识：图片可以在多个分组、多个文件名下共用同一个对象，嵌字结果按页面区分
+        static String pageKey(String group, String filename) {
+            byte[] key = (group + "/" + filename).getBytes(StandardCharsets.UTF_8);
+            return ObjectStore.hex(ObjectStore.sha256().digest(key)).substring(0, 12);
+        }
+
+        // 删除某个页面的全部嵌字结果（页面被删、改名或换了图片）
+        static void deleteRenders(String digest, String group, String filename) throws IOException {
+            Path shard = ObjectStore.objectPath(digest).getParent();
+            if (!Files.isDirectory(shard)) {
+                return;
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(shard, digest + ".render-" + pageKey(group, filename) + "-*")) {
+                for (Path file : stream) {
+                    if (!file.getFileName().toString().endsWith(".tmp")) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+
+        // jpg 原图输出 jpg，其他格式输出无损的 png
+        static String format(String filename) {
+            String lower = filename.toLowerCase(Locale.ROOT);
+            return lower.endsWith(".jpg") || lower.endsWith(".jpeg") ? "jpg" : "png";
+        }
+
+        /**
+         * 返回嵌字后的图片文件，有缓存直接返回；分组里没有这张图时返回 null。
+         */
+        Path render(String group, String filename) throws IOException {
+            ObjectStore.Entry entry = objectStore.entry(group, filename);
+            if (entry == null) {
+                return null;
+            }
+            List<TranslationArea> areas = pageOf(group, filename);
+            String format = format(filename);
+            String prefix = entry.digest + ".render-" + pageKey(group, filename) + "-";
+            Path output = ObjectStore.objectPath(entry.digest).resolveSibling(prefix + pageHash(areas) + "." + format);
+            if (Files.exists(output)) {
+                return output;
+            }
+            Path source = ObjectStore.objectPath(entry.digest);
+            int[] size = ImagePipeline.imageSize(source);
+            if (size == null) {
+                throw new IOException("无法识别的图片格式: " + filename);
+            }
+            // 解码后的原图和 draw 里的 INT_RGB 副本同时存在，各按每像素 4 字节算
+            int megabytes = (int) Math.min(RENDER_BUDGET_MB, Math.max(1, (long) size[0] * size[1] * 8 >> 20));
+            budget.acquireUninterruptibly(megabytes);
+            // 同一页面可能被并发渲染（单页请求和整组打包同时进行），临时文件各用各的
+            Path temp = Files.createTempFile(output.getParent(), output.getFileName() + ".", ".tmp");
+            try {
+                BufferedImage image = draw(ImageIO.read(source.toFile()), areas);
+                if (!ImageIO.write(image, format, temp.toFile())) {
+                    throw new IOException("没有可用的图片编码器: " + format);
+                }
+                Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                budget.release(megabytes);
+                Files.deleteIfExists(temp);
+            }
+            // 同一页面之前版本的嵌字结果已经过期，其他分组、其他文件名共用这张图的结果不动
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(output.getParent(), prefix + "*")) {
+                for (Path file : stream) {
+                    if (!file.equals(output) && !file.getFileName().toString().endsWith(".tmp")) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+            return output;
+        }
+
+        /**
+         * 渲染并打开结果；分组里没有这张图时返回 null。刚渲染好的文件可能被同一页面更新后的渲染删掉，
+         * 这时重新渲染一次（打开之后再被删除不影响读取）。
+         */
+        InputStream open(String group, String filename) throws IOException {
+            for (int attempt = 0; ; attempt++) {
+                Path rendered = render(group, filename);
+                if (rendered == null) {
+                    return null;
+                }
+                try {
+                    return Files.newInputStream(rendered);
+                } catch (NoSuchFileException e) {
+                    if (attempt > 0) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        // 整组并行渲染，返回与 filenames 顺序一致的结果
+        List<Future<Path>> renderAll(String group, List<String> filenames) {
+            List<Future<Path>> results = new ArrayList<>(filenames.size());
+            for (String filename : filenames) {
+                results.add(pool.submit(() -> render(group, filename)));
+            }
+            return results;
+        }
+
+        static BufferedImage draw(BufferedImage source, List<TranslationArea> areas) {
+            BufferedImage image = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            try {
+                g.drawImage(source, 0, 0, null);
+                g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+                for (TranslationArea area : areas) {
+                    if (area.translation == null || area.translation.trim().isEmpty()) {
+                        continue;
+                    }
+                    // 从右下往左上拖出的框宽高为负
+                    int x = Math.min(area.x, area.x + area.width);
+                    int y = Math.min(area.y, area.y + area.height);
+                    int width = Math.abs(area.width);
+                    int height = Math.abs(area.height);
+                    if (width < 4 || height < 4) {
+                        continue;
+                    }
+                    g.setColor(Color.WHITE);
+                    g.fillRect(x, y, width, height);
+                    g.setColor(Color.BLACK);
+                    drawText(g, area.translation.trim(), x, y, width, height);
+                }
+            } finally {
+                g.dispose();
+            }
+            return image;
+        }
+
+        private static void drawText(Graphics2D g, String text, int x, int y, int width, int height) {
+            int padding = Math.max(2, Math.min(width, height) / 20);
+            float innerWidth = width - 2 * padding;
+            float innerHeight = height - 2 * padding;
+            FontRenderContext context = g.getFontRenderContext();
+            List<TextLayout> lines = null;
+            float total = 0;
+            for (int size = Math.min(RENDER_MAX_FONT, (int) innerHeight); size >= RENDER_MIN_FONT; size -= Math.max(1, size / 10)) {
+                lines = layout(text, new Font(RENDER_FONT, Font.PLAIN, size), context, innerWidth);
+                total = 0;
+                for (TextLayout line : lines) {
+                    total += line.getAscent() + line.getDescent() + line.getLeading();
+                }
+                if (total <= innerHeight) {
+                    break;
+                }
+            }
+            if (lines == null) {
+                return;
+            }
+            // 最小字号仍放不下时超出部分裁掉
+            Shape clip = g.getClip();
+            g.clipRect(x, y, width, height);
+            float top = y + padding + Math.max(0, (innerHeight - total) / 2);
+            for (TextLayout line : lines) {
+                top += line.getAscent();
+                line.draw(g, x + padding + Math.max(0, (innerWidth - line.getAdvance()) / 2), top);
+                top += line.getDescent() + line.getLeading();
+            }
+            g.setClip(clip);
+        }
+
+        // 按宽度断行：中日文可在任意字间断开，西文在单词间断开；手动换行符单独成段
+        private static List<TextLayout> layout(String text, Font font, FontRenderContext context, float width) {
+            List<TextLayout> lines = new ArrayList<>();
+            for (String paragraph : text.split("\n")) {
+                if (paragraph.isEmpty()) {
+                    continue;
+                }
+                AttributedString attributed = new AttributedString(paragraph);
+                attributed.addAttribute(TextAttribute.FONT, font);
+                LineBreakMeasurer measurer = new LineBreakMeasurer(attributed.getIterator(), context);
+                while (measurer.getPosition() < paragraph.length()) {
+                    lines.add(measurer.nextLayout(width));
+                }
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * 按内容寻址的图片存储。图片按 SHA-256 摘要只在 uploads/.objects 下存一份，分组目录里的
+     * .manifest.json 记录文件名到摘要的对应，重复上传或多个分组（不同译文语言）共用原图都不再占用额外空间。
+     * 引用计数在启动时由全部清单统计得到；删除分组只删清单，计数归零的对象连同缩略图随即删除。
+     * 手工放进分组目录的图片（包括旧版本的数据）在启动或列表刷新时收进存储。
+     * 修改某个分组的清单时持有该分组的 io 锁，与删除、重命名互斥。
+     */
+    static class ObjectStore {
+        static class Entry {
+            final String digest;
+            final long size;
+            final long modified;
+
+            Entry(String digest, long size, long modified) {
+                this.digest = digest;
+                this.size = size;
+                this.modified = modified;
+            }
+        }
+
+        private final Map<String, Map<String, Entry>> manifests = new ConcurrentHashMap<>();
+        // 摘要 → 引用它的清单条目数，同时保护对象文件的创建和删除
+        private final Map<String, Integer> refs = new HashMap<>();
+
+        static Path directory() {
+            return Paths.get(UPLOAD_DIR, OBJECTS_DIR);
+        }
+
+        static Path objectPath(String digest) {
+            return directory().resolve(digest.substring(0, 2)).resolve(digest);
+        }
+
+        static Path derivative(String digest, String kind) {
+            return directory().resolve(digest.substring(0, 2)).resolve(digest + "." + kind + ".jpg");
+        }
+
+        // 启动时读入全部清单并统计引用，收编散落在分组目录里的图片，再清掉没有引用的对象
+        void open() throws IOException {
+            Files.createDirectories(directory());
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(UPLOAD_DIR))) {
+                for (Path groupPath : stream) {
+                    String group = groupPath.getFileName().toString();
+                    if (!Files.isDirectory(groupPath) || group.startsWith(".")) {
+                        continue;
+                    }
+                    Map<String, Entry> manifest = readManifest(groupPath);
+                    manifests.put(group, manifest);
+                    synchronized (this) {
+                        for (Entry entry : manifest.values()) {
+                            refs.merge(entry.digest, 1, Integer::sum);
+                        }
+                    }
+                    importLoose(group);
+                    // 缩略图以前放在分组目录的 .derived 下，现在随对象存放
+                    Path legacyDerived = groupPath.resolve(".derived");
+                    if (Files.isDirectory(legacyDerived)) {
+                        try (DirectoryStream<Path> derived = Files.newDirectoryStream(legacyDerived)) {
+                            for (Path file : derived) {
+                                Files.delete(file);
+                            }
+                        }
+                        Files.delete(legacyDerived);
+                    }
+                }
+            }
+            int removed = 0;
+            try (DirectoryStream<Path> shards = Files.newDirectoryStream(directory())) {
+                for (Path shard : shards) {
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(shard)) {
+                        for (Path file : stream) {
+                            String name = file.getFileName().toString();
+                            int dot = name.indexOf('.');
+                            if (!refs.containsKey(dot < 0 ? name : name.substring(0, dot))) {
+                                Files.delete(file);
+                                removed++;
+                            }
+                        }
+                    }
+                }
+            }
+            System.out.println("图片存储: " + refs.size() + " 个对象，清理无引用文件 " + removed + " 个");
+        }
+
+        private static Map<String, Entry> readManifest(Path groupPath) throws IOException {
+            Path file = groupPath.resolve(MANIFEST_FILE);
+            Map<String, Entry> manifest = new ConcurrentHashMap<>();
+            if (Files.exists(file)) {
+                try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    Map<String, Entry> stored = gson.fromJson(reader, new TypeToken<Map<String, Entry>>() {}.getType());
+                    if (stored != null) {
+                        manifest.putAll(stored);
+                    }
+                }
+            }
+            return manifest;
+        }
+
+        // 与翻译快照一样先写临时文件落盘再原子替换；清单丢失会导致对象被当作无引用清理
+        private static void writeManifest(Path groupPath, Map<String, Entry> manifest) throws IOException {
+            Path tempFile = groupPath.resolve(MANIFEST_FILE + ".tmp");
+            byte[] json = gson.toJson(new TreeMap<>(manifest)).getBytes(StandardCharsets.UTF_8);
+            try (FileChannel channel = FileChannel.open(tempFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(json);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tempFile, groupPath.resolve(MANIFEST_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        Map<String, Entry> files(String group) {
+            return Collections.unmodifiableMap(manifests.getOrDefault(group, Collections.emptyMap()));
+        }
+
+        Entry entry(String group, String filename) {
+            Map<String, Entry> manifest = manifests.get(group);
+            return manifest != null ? manifest.get(filename) : null;
+        }
+
+        Path resolve(String group, String filename) {
+            Entry entry = entry(group, filename);
+            return entry != null ? objectPath(entry.digest) : null;
+        }
+
+        // 边写临时文件边计算摘要，数据只写一遍
+        Entry put(String group, String filename, InputStream in) throws IOException {
+            Path temp = Files.createDirectories(UploadSessions.directory()).resolve(UUID.randomUUID() + ".tmp");
+            try {
+                DigestInputStream digesting = new DigestInputStream(in, sha256());
+                long size = Files.copy(digesting, temp);
+                return link(group, filename, temp, hex(digesting.getMessageDigest().digest()), size);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        // 已经在磁盘上的文件（分块上传、散落的旧图片）：读一遍算摘要，再移动进存储。
+        // 登记失败时文件留在原处（散落的图片可能是唯一的一份，下次启动还能再收编）
+        Entry putFile(String group, String filename, Path file) throws IOException {
+            MessageDigest digest = sha256();
+            ByteBuffer buffer = ByteBuffer.allocate(EXPORT_BUFFER_SIZE);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (channel.read(buffer) > 0) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+            Entry entry = link(group, filename, file, hex(digest.digest()), Files.size(file));
+            // 对象已存在时文件没有移走，是重复的一份
+            Files.deleteIfExists(file);
+            return entry;
+        }
+
+        /**
+         * 把文件登记到分组清单。对象已存在时文件留给调用方删除，否则移动进存储；同名旧文件的引用随之释放。
+         * 分组已被删除时抛出 NoSuchFileException；写清单失败时移进存储的文件放回原处。
+         */
+        private Entry link(String group, String filename, Path file, String digest, long size) throws IOException {
+            Path groupPath = Paths.get(UPLOAD_DIR, group);
+            Entry entry = new Entry(digest, size, System.currentTimeMillis());
+            ReentrantLock io = groupLocks.io(group);
+            io.lock();
+            try {
+                if (!Files.isDirectory(groupPath)) {
+                    throw new NoSuchFileException(group);
+                }
+                boolean moved = false;
+                synchronized (this) {
+                    Path object = objectPath(digest);
+                    if (!Files.exists(object)) {
+                        Files.createDirectories(object.getParent());
+                        Files.move(file, object, StandardCopyOption.ATOMIC_MOVE);
+                        moved = true;
+                    }
+                    refs.merge(digest, 1, Integer::sum);
+                }
+                Map<String, Entry> manifest = manifests.computeIfAbsent(group, g -> new ConcurrentHashMap<>());
+                Entry previous = manifest.put(filename, entry);
+                try {
+                    writeManifest(groupPath, manifest);
+                } catch (IOException e) {
+                    if (previous != null) {
+                        manifest.put(filename, previous);
+                    } else {
+                        manifest.remove(filename);
+                    }
+                    try {
+                        unlink(digest, file, moved);
+                    } catch (IOException undo) {
+                        e.addSuppressed(undo);
+                    }
+                    throw e;
+                }
+                if (previous != null) {
+                    if (!previous.digest.equals(digest)) {
+                        Renderer.deleteRenders(previous.digest, group, filename);
+                    }
+                    release(previous.digest);
+                }
+            } finally {
+                io.unlock();
+            }
+            return entry;
+        }
+
+        // 把分组目录里还不在清单中的图片收进存储
+        void importLoose(String group) throws IOException {
+            Path groupPath = Paths.get(UPLOAD_DIR, group);
+            for (String filename : listGroupFiles(groupPath)) {
+                putFile(group, filename, groupPath.resolve(filename));
+            }
+        }
+
+        // 删除分组：调用方持有该分组的独占锁
+        void dropGroup(String group) throws IOException {
+            Map<String, Entry> manifest = manifests.remove(group);
+            Files.deleteIfExists(Paths.get(UPLOAD_DIR, group, MANIFEST_FILE));
+            if (manifest != null) {
+                for (Map.Entry<String, Entry> file : manifest.entrySet()) {
+                    // 图片被其他分组共用时对象还在，这个分组的嵌字结果要单独删
+                    Renderer.deleteRenders(file.getValue().digest, group, file.getKey());
+                    release(file.getValue().digest);
+                }
+            }
+        }
+
+        // 重命名分组：清单随目录移动，引用不变，嵌字结果按旧名登记的作废；调用方持有两个分组的独占锁
+        void renamed(String oldGroup, String newGroup) throws IOException {
+            Map<String, Entry> manifest = manifests.remove(oldGroup);
+            if (manifest != null) {
+                manifests.put(newGroup, manifest);
+                for (Map.Entry<String, Entry> file : manifest.entrySet()) {
+                    Renderer.deleteRenders(file.getValue().digest, oldGroup, file.getKey());
+                }
+            }
+        }
+
+        // 撤销 link 里的登记：文件是这次移进存储的就放回原处（别的分组同时也引用了它时复制一份回去），否则只减引用
+        private synchronized void unlink(String digest, Path file, boolean moved) throws IOException {
+            Path object = objectPath(digest);
+            if (moved && refs.get(digest) == 1) {
+                // 先移回再去掉引用，移回失败时对象仍被计数，不会被当作无引用删除
+                Files.move(object, file, StandardCopyOption.ATOMIC_MOVE);
+                refs.remove(digest);
+                deleteDerivatives(digest, null);
+                return;
+            }
+            if (moved) {
+                Files.copy(object, file);
+            }
+            release(digest);
+        }
+
+        private synchronized void release(String digest) throws IOException {
+            Integer count = refs.get(digest);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                refs.put(digest, count - 1);
+                return;
+            }
+            refs.remove(digest);
+            Files.deleteIfExists(objectPath(digest));
+            // 缩略图、预览图、嵌字结果都以 摘要. 开头
+            deleteDerivatives(digest, null);
+        }
+
+        // 删除对象的派生文件，keep 不为空时保留这一个
+        static void deleteDerivatives(String digest, Path keep) throws IOException {
+            Path shard = objectPath(digest).getParent();
+            if (!Files.isDirectory(shard)) {
+                return;
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(shard, digest + ".*")) {
+                for (Path file : stream) {
+                    if (!file.equals(keep)) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+
+        static MessageDigest sha256() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        static String hex(byte[] bytes) {
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+    }
+
+    /**
+     * 原文和译文的全文倒排索引，以标注区域为单位。中日韩文字按单字和相邻两字（bigram）建索引，不需要词典，
+     * 词条用码点拼成 long 再打散表示（两个汉字组成的 String 或直接拼接的 long 哈希值都很集中，大量冲突）；
+     * 其他文字按字母数字连续段切词并转小写。
+     * 倒排表是按区域编号递增的变长差值编码字节数组。
+     * 保存页面时把旧页面标记为删除，给新页面分配新的编号追加到倒排表末尾，倒排表始终有序，从不整体重建；
+     * 已删除的条目在查询时跳过，累计超过有效条目时顺带压缩倒排表，同时给有效页面和区域重新编号，收回作废的位置。
+     * 启动时后台逐组建立初始索引，建好之前查询结果可能不全。
+     * 索引只记每个页面的分组、文件名和区域编号范围，不持有页面本身，分组被缓存淘汰后内存可以真正释放；
+     * 需要核对文本或返回坐标时经分组缓存重新取页面。
+     */
+    static class SearchIndex {
+        static final class Postings {
+            byte[] data = new byte[4];
+            int length;
+            int last = -1;
+            int count;
+
+            void add(int id) {
+                if (length + 5 > data.length) {
+                    data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+                }
+                int delta = id - last;
+                last = id;
+                while ((delta & ~0x7F) != 0) {
+                    data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                    delta >>>= 7;
+                }
+                data[length++] = (byte) delta;
+                count++;
+            }
+
+            int[] decode() {
+                int[] ids = new int[count];
+                int id = -1;
+                int pos = 0;
+                for (int i = 0; i < count; i++) {
+                    int delta = 0;
+                    int shift = 0;
+                    byte b;
+                    do {
+                        b = data[pos++];
+                        delta |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while (b < 0);
+                    id += delta;
+                    ids[i] = id;
+                }
+                return ids;
+            }
+        }
+
+        static class Hit {
+            final String group;
+            final String file;
+            final int index;
+            final int x, y, width, height;
+            final String original;
+            final String translation;
+
+            Hit(String group, String file, int index, TranslationArea area) {
+                this.group = group;
+                this.file = file;
+                this.index = index;
+                this.x = area.x;
+                this.y = area.y;
+                this.width = area.width;
+                this.height = area.height;
+                this.original = area.original;
+                this.translation = area.translation;
+            }
+        }
+
+        static class Result {
+            String query;
+            int total;
+            int page;
+            int size;
+            boolean complete;
+            double tookMs;
+            List<Hit> hits = new ArrayList<>();
+        }
+
+        // 取一页当前的标注；页面不存在时返回空列表
+        interface Pages {
+            List<TranslationArea> get(String group, String file) throws IOException;
+        }
+
+        private final Pages pages;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        // 键是中日韩单字/两字的 Long 编码或其他文字的小写词 String
+        private final Map<Object, Postings> postings = new HashMap<>();
+        // 分组 → 文件 → 当前有效的页面编号
+        private final Map<String, Map<String, Integer>> live = new HashMap<>();
+        // 页面编号 → 分组、文件名、第一个区域的编号；页面的区域编号连续，到下一个页面的第一个区域为止
+        private String[] docGroup = new String[1024];
+        private String[] docFile = new String[1024];
+        private int[] docFirstArea = new int[1024];
+        private int docCount;
+        private int[] areaDoc = new int[4096];
+        private int areaCount;
+        private final BitSet deadDocs = new BitSet();
+        private long liveAreas;
+        private long deadAreas;
+        private volatile boolean ready;
+
+        SearchIndex(Pages pages) {
+            this.pages = pages;
+        }
+
+        static boolean isCjk(int codePoint) {
+            Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+            return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+        }
+
+        // 单字取码点（21 位），两字把两个码点拼起来再加上第 42 位作区分；乘法和移位异或都可逆，不会产生重复编码
+        static long gram(int first, int second) {
+            return mix((1L << 42) | ((long) first << 21) | second);
+        }
+
+        static long gram(int codePoint) {
+            return mix(codePoint);
+        }
+
+        private static long mix(long code) {
+            code *= 0x9E3779B97F4A7C15L;
+            return code ^ (code >>> 29);
+        }
+
+        /**
+         * 中日韩文字连续段：建索引时收录每个单字和相邻两字；查询时只有一个字用单字，否则用相邻两字。
+         * 其他字母数字连续段整体转小写。
+         */
+        static void tokenize(String text, boolean indexing, Collection<Object> tokens) {
+            if (text == null) {
+                return;
+            }
+            int n = text.length();
+            int i = 0;
+            while (i < n) {
+                int cp = text.codePointAt(i);
+                if (isCjk(cp)) {
+                    int previous = -1;
+                    int length = 0;
+                    while (i < n && isCjk(cp = text.codePointAt(i))) {
+                        if (previous >= 0) {
+                            tokens.add(gram(previous, cp));
+                        }
+                        if (indexing) {
+                            tokens.add(gram(cp));
+                        }
+                        previous = cp;
+                        length++;
+                        i += Character.charCount(cp);
+                    }
+                    if (!indexing && length == 1) {
+                        tokens.add(gram(previous));
+                    }
+                } else if (Character.isLetterOrDigit(cp)) {
+                    int start = i;
+                    while (i < n && Character.isLetterOrDigit(cp = text.codePointAt(i)) && !isCjk(cp)) {
+                        i += Character.charCount(cp);
+                    }
+                    tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                } else {
+                    i += Character.charCount(cp);
+                }
+            }
+        }
+
+        private static List<Set<Object>> tokenizePage(List<TranslationArea> page) {
+            List<Set<Object>> areas = new ArrayList<>(page.size());
+            for (TranslationArea area : page) {
+                Set<Object> tokens = new HashSet<>();
+                tokenize(area.original, true, tokens);
+                tokenize(area.translation, true, tokens);
+                areas.add(tokens);
+            }
+            return areas;
+        }
+
+        // 保存页面后调用：旧页面作废，新页面追加
+        void replace(String group, String file, List<TranslationArea> page) {
+            List<Set<Object>> tokens = tokenizePage(page);
+            lock.writeLock().lock();
+            try {
+                Map<String, Integer> files = live.get(group);
+                Integer old = files != null ? files.remove(file) : null;
+                if (old != null) {
+                    kill(old);
+                }
+                add(group, file, tokens);
+                compactIfNeeded();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // 初始建索引时使用：保存已经登记过的页面更新，不能被磁盘上的旧内容覆盖
+        void addIfAbsent(String group, String file, List<TranslationArea> page) {
+            List<Set<Object>> tokens = tokenizePage(page);
+            lock.writeLock().lock();
+            try {
+                Map<String, Integer> files = live.get(group);
+                if (files == null || !files.containsKey(file)) {
+                    add(group, file, tokens);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void removeGroup(String group) {
+            lock.writeLock().lock();
+            try {
+                Map<String, Integer> files = live.remove(group);
+                if (files != null) {
+                    files.values().forEach(this::kill);
+                }
+                compactIfNeeded();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void renameGroup(String oldGroup, String newGroup) {
+            lock.writeLock().lock();
+            try {
+                Map<String, Integer> files = live.remove(oldGroup);
+                if (files != null) {
+                    for (int doc : files.values()) {
+                        docGroup[doc] = newGroup;
+                    }
+                    live.put(newGroup, files);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void add(String group, String file, List<Set<Object>> tokens) {
+            live.computeIfAbsent(group, g -> new HashMap<>()).put(file, docCount);
+            if (docCount == docGroup.length) {
+                int capacity = docCount * 2;
+                docGroup = Arrays.copyOf(docGroup, capacity);
+                docFile = Arrays.copyOf(docFile, capacity);
+                docFirstArea = Arrays.copyOf(docFirstArea, capacity);
+            }
+            if (areaCount + tokens.size() > areaDoc.length) {
+                areaDoc = Arrays.copyOf(areaDoc, Math.max(areaDoc.length * 2, areaCount + tokens.size()));
+            }
+            int doc = docCount++;
+            docGroup[doc] = group;
+            docFile[doc] = file;
+            docFirstArea[doc] = areaCount;
+            for (Set<Object> areaTokens : tokens) {
+                int area = areaCount++;
+                areaDoc[area] = doc;
+                for (Object token : areaTokens) {
+                    postings.computeIfAbsent(token, t -> new Postings()).add(area);
+                }
+            }
+            liveAreas += tokens.size();
+        }
+
+        private int areaEnd(int doc) {
+            return doc + 1 < docCount ? docFirstArea[doc + 1] : areaCount;
+        }
+
+        private void kill(int doc) {
+            deadDocs.set(doc);
+            int areas = areaEnd(doc) - docFirstArea[doc];
+            liveAreas -= areas;
+            deadAreas += areas;
+            docGroup[doc] = null;
+            docFile[doc] = null;
+        }
+
+        /**
+         * 作废条目多于有效条目时压缩，不重新切词：有效页面按原顺序重新编号，区域随之连续编号，
+         * 倒排表去掉作废的编号并换成新编号（新旧编号顺序一致，仍然有序），页面和区域数组收缩到有效条目的大小。
+         */
+        private void compactIfNeeded() {
+            if (deadAreas < SEARCH_COMPACT_MIN || deadAreas < liveAreas) {
+                return;
+            }
+            int[] docMap = new int[docCount];
+            int[] areaMap = new int[areaCount];
+            int liveDocs = docCount - deadDocs.cardinality();
+            String[] groups = new String[Math.max(1024, liveDocs * 2)];
+            String[] files = new String[groups.length];
+            int[] firstAreas = new int[groups.length];
+            int[] areas = new int[(int) Math.max(4096, liveAreas * 2)];
+            int docs = 0;
+            int next = 0;
+            for (int doc = 0; doc < docCount; doc++) {
+                int end = areaEnd(doc);
+                if (deadDocs.get(doc)) {
+                    docMap[doc] = -1;
+                    Arrays.fill(areaMap, docFirstArea[doc], end, -1);
+                    continue;
+                }
+                docMap[doc] = docs;
+                groups[docs] = docGroup[doc];
+                files[docs] = docFile[doc];
+                firstAreas[docs] = next;
+                for (int area = docFirstArea[doc]; area < end; area++) {
+                    areaMap[area] = next;
+                    areas[next++] = docs;
+                }
+                docs++;
+            }
+            Iterator<Postings> iterator = postings.values().iterator();
+            while (iterator.hasNext()) {
+                Postings list = iterator.next();
+                Postings compacted = new Postings();
+                for (int area : list.decode()) {
+                    if (areaMap[area] >= 0) {
+                        compacted.add(areaMap[area]);
+                    }
+                }
+                if (compacted.count == 0) {
+                    iterator.remove();
+                } else {
+                    list.data = Arrays.copyOf(compacted.data, compacted.length);
+                    list.length = compacted.length;
+                    list.last = compacted.last;
+                    list.count = compacted.count;
+                }
+            }
+            for (Map<String, Integer> docsOfGroup : live.values()) {
+                docsOfGroup.replaceAll((file, doc) -> docMap[doc]);
+            }
+            docGroup = groups;
+            docFile = files;
+            docFirstArea = firstAreas;
+            docCount = docs;
+            areaDoc = areas;
+            areaCount = next;
+            deadDocs.clear();
+            deadAreas = 0;
+        }
+
+        /**
+         * 按空白分隔的每个词都必须出现在同一个区域的原文或译文里。倒排表求交集得到候选，
+         * 查询词超过两个中日韩文字或含标点时 bigram 只是近似，再逐个核对原文确实包含查询词。
+         * 结果按保存时间从新到旧，page 从 1 开始。
+         * 候选在索引锁内取出（分组、文件名、页内序号），锁外再经分组缓存取页面：取页面可能要加载分组、
+         * 拿分组写锁，而保存是先拿分组写锁再更新索引，不能反过来在索引锁内等分组锁。
+         */
+        Result search(String query, String groupFilter, int page, int size) {
+            long start = System.nanoTime();
+            Result result = new Result();
+            result.query = query;
+            result.page = page;
+            result.size = size;
+            result.complete = ready;
+            List<String> terms = new ArrayList<>();
+            for (String term : query.trim().toLowerCase(Locale.ROOT).split("\\s+")) {
+                if (!term.isEmpty()) {
+                    terms.add(term);
+                }
+            }
+            boolean verify = false;
+            int count = 0;
+            String[] groups;
+            String[] files;
+            int[] indexes;
+            lock.readLock().lock();
+            try {
+                int[] candidates = terms.isEmpty() ? new int[0] : null;
+                for (String term : terms) {
+                    List<Object> tokens = new ArrayList<>();
+                    tokenize(term, false, tokens);
+                    verify |= !exact(term, tokens);
+                    for (Object token : tokens) {
+                        Postings list = postings.get(token);
+                        int[] ids = list != null ? list.decode() : new int[0];
+                        candidates = candidates == null ? ids : intersect(candidates, ids);
+                    }
+                }
+                if (candidates == null) {
+                    // 查询里只有标点，没有可用的词
+                    candidates = new int[0];
+                }
+                groups = new String[candidates.length];
+                files = new String[candidates.length];
+                indexes = new int[candidates.length];
+                for (int i = candidates.length - 1; i >= 0; i--) {
+                    int area = candidates[i];
+                    int doc = areaDoc[area];
+                    if (deadDocs.get(doc) || (groupFilter != null && !groupFilter.equals(docGroup[doc]))) {
+                        continue;
+                    }
+                    groups[count] = docGroup[doc];
+                    files[count] = docFile[doc];
+                    indexes[count++] = area - docFirstArea[doc];
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            int skip = (page - 1) * size;
+            List<TranslationArea> areas = null;
+            int fetched = -1;
+            for (int i = 0; i < count; i++) {
+                boolean shown = result.total >= skip && result.hits.size() < size;
+                TranslationArea candidate = null;
+                if (verify || shown) {
+                    // 候选按区域编号排列，同一页面的区域相邻，连续的候选只取一次页面
+                    if (fetched < 0 || !groups[i].equals(groups[fetched]) || !files[i].equals(files[fetched])) {
+                        fetched = i;
+                        try {
+                            areas = pages.get(groups[i], files[i]);
+                        } catch (IOException e) {
+                            System.err.println("搜索时读取页面失败: " + groups[i] + "/" + files[i] + ": " + e.getMessage());
+                            areas = new ArrayList<>();
+                        }
+                    }
+                    candidate = indexes[i] < areas.size() ? areas.get(indexes[i]) : null;
+                    // 取出候选之后页面又保存过，序号可能已经对不上
+                    if (candidate == null || !matches(candidate, terms)) {
+                        continue;
+                    }
+                }
+                if (shown) {
+                    result.hits.add(new Hit(groups[i], files[i], indexes[i], candidate));
+                }
+                result.total++;
+            }
+            result.tookMs = (System.nanoTime() - start) / 1_000_000.0;
+            return result;
+        }
+
+        // 查询词只切出一个词条且词条本身就等于查询词（一两个中日韩文字、一个完整的字母数字词）时，倒排表命中即为包含，不必核对原文
+        private static boolean exact(String term, List<Object> tokens) {
+            if (tokens.size() != 1) {
+                return false;
+            }
+            if (tokens.get(0) instanceof String) {
+                return tokens.get(0).equals(term);
+            }
+            int length = term.codePointCount(0, term.length());
+            return length <= 2 && term.codePoints().allMatch(SearchIndex::isCjk);
+        }
+
+        private static int[] intersect(int[] a, int[] b) {
+            int[] out = new int[Math.min(a.length, b.length)];
+            int n = 0;
+            for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    out[n++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+            return Arrays.copyOf(out, n);
+        }
+
+        private static boolean matches(TranslationArea area, List<String> terms) {
+            String original = area.original != null ? area.original.toLowerCase(Locale.ROOT) : "";
+            String translation = area.translation != null ? area.translation.toLowerCase(Locale.ROOT) : "";
+            for (String term : terms) {
+                if (!original.contains(term) && !translation.contains(term)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void markReady() {
+            ready = true;
+        }
+
+        long areas() {
+            return liveAreas;
+        }
+    }
+
+    /**
+     * 翻译记忆：全部标注按规范化的原文（去首尾空白、合并连续空白、转小写）归并，记下每种译法出现的次数。
+     * 模糊查找用 MinHash 局部敏感哈希：原文切成相邻两字的集合，取 TM_HASHES 个最小哈希值，
+     * 每 TM_ROWS 个拼成一个桶键，任一桶相同即为候选；候选按命中桶数取前若干个，再用编辑距离算相似度排序。
+     * 和搜索索引一样按页面登记，保存页面时先撤销旧页面的计数再加入新页面。每页只记下计入了哪些原文条目和译法
+     * （引用条目里本来就有的字符串），不持有页面本身。
+     * 原文条目数可达数百万，桶表用开放寻址的 long 数组，译法用两个小数组，不用 HashMap 和装箱的键。
+     */
+    static class TranslationMemory {
+        static final class Source {
+            final String original;
+            final String normalized;
+            String[] texts = new String[1];
+            int[] counts = new int[1];
+            int size;
+            int refs;
+
+            Source(String original, String normalized) {
+                this.original = original;
+                this.normalized = normalized.equals(original) ? original : normalized;
+            }
+
+            // 返回条目里保存的那个译法字符串，同一译法各页共用一份
+            String count(String text, int delta) {
+                for (int i = 0; i < size; i++) {
+                    if (texts[i].equals(text)) {
+                        String kept = texts[i];
+                        counts[i] += delta;
+                        if (counts[i] <= 0) {
+                            size--;
+                            texts[i] = texts[size];
+                            counts[i] = counts[size];
+                            texts[size] = null;
+                        }
+                        return kept;
+                    }
+                }
+                if (delta > 0) {
+                    if (size == texts.length) {
+                        texts = Arrays.copyOf(texts, size * 2);
+                        counts = Arrays.copyOf(counts, size * 2);
+                    }
+                    texts[size] = text;
+                    counts[size++] = delta;
+                }
+                return text;
+            }
+        }
+
+        // 一页计入的条目和译法，替换、删除页面时据此撤销
+        static final class Counted {
+            static final Counted EMPTY = new Counted(new Source[0], new String[0]);
+
+            final Source[] sources;
+            final String[] texts;
+
+            Counted(Source[] sources, String[] texts) {
+                this.sources = sources;
+                this.texts = texts;
+            }
+        }
+
+        /**
+         * 桶键 → 原文。线性探测的开放寻址表，桶键本身已经打散，直接取低位定位；
+         * 大多数桶只有一条原文，直接存 Source，多条时存 Source[]。删除时把后面的元素前移补位，不留墓碑。
+         */
+        static final class Buckets {
+            private long[] keys = new long[1024];
+            private Object[] values = new Object[1024];
+            private int size;
+
+            private static int home(long key, int mask) {
+                return (int) (key ^ (key >>> 32)) & mask;
+            }
+
+            private int slot(long key) {
+                int mask = keys.length - 1;
+                int i = home(key, mask);
+                while (values[i] != null && keys[i] != key) {
+                    i = (i + 1) & mask;
+                }
+                return i;
+            }
+
+            Object get(long key) {
+                return values[slot(key)];
+            }
+
+            void add(long key, Source source) {
+                if ((size + 1) * 2 > keys.length) {
+                    resize();
+                }
+                int i = slot(key);
+                Object current = values[i];
+                if (current == null) {
+                    keys[i] = key;
+                    values[i] = source;
+                    size++;
+                } else if (current instanceof Source) {
+                    values[i] = new Source[] { (Source) current, source };
+                } else {
+                    Source[] list = (Source[]) current;
+                    Source[] grown = Arrays.copyOf(list, list.length + 1);
+                    grown[list.length] = source;
+                    values[i] = grown;
+                }
+            }
+
+            void remove(long key, Source source) {
+                int i = slot(key);
+                Object current = values[i];
+                if (current == source) {
+                    delete(i);
+                } else if (current instanceof Source[]) {
+                    Source[] list = (Source[]) current;
+                    Source[] rest = new Source[list.length - 1];
+                    int n = 0;
+                    for (Source other : list) {
+                        if (other != source && n < rest.length) {
+                            rest[n++] = other;
+                        }
+                    }
+                    values[i] = rest.length == 1 ? rest[0] : rest;
+                }
+            }
+
+            private void delete(int i) {
+                int mask = keys.length - 1;
+                values[i] = null;
+                size--;
+                for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                    int home = home(keys[j], mask);
+                    // home 落在 (i, j] 之间的元素留在原处，否则前移到空位
+                    boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+                    if (!stays) {
+                        keys[i] = keys[j];
+                        values[i] = values[j];
+                        values[j] = null;
+                        i = j;
+                    }
+                }
+            }
+
+            private void resize() {
+                long[] oldKeys = keys;
+                Object[] oldValues = values;
+                keys = new long[oldKeys.length * 2];
+                values = new Object[oldValues.length * 2];
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldValues[i] != null) {
+                        int j = slot(oldKeys[i]);
+                        keys[j] = oldKeys[i];
+                        values[j] = oldValues[i];
+                    }
+                }
+            }
+        }
+
+        static class Choice {
+            final String text;
+            final int count;
+
+            Choice(String text, int count) {
+                this.text = text;
+                this.count = count;
+            }
+        }
+
+        static class Suggestion {
+            String original;
+            double similarity;
+            List<Choice> translations = new ArrayList<>();
+        }
+
+        static class Result {
+            String query;
+            boolean complete;
+            double tookMs;
+            List<Suggestion> suggestions = new ArrayList<>();
+        }
+
+        private static final long[] SEEDS = new SplittableRandom(0x544D).longs(TM_HASHES).toArray();
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Source> sources = new HashMap<>();
+        private final Buckets buckets = new Buckets();
+        // 分组 → 文件 → 已登记页面计入的内容，替换时据此撤销
+        private final Map<String, Map<String, Counted>> pages = new HashMap<>();
+        private volatile boolean ready;
+
+        static String normalize(String text) {
+            return text == null ? "" : text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        }
+
+        private static long hash(long value, long seed) {
+            long z = value * 0x9E3779B97F4A7C15L + seed;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+
+        // 相邻两字的集合算 MinHash 签名，每 TM_ROWS 个值合成一个桶键
+        static long[] bands(String normalized) {
+            long[] minimums = new long[TM_HASHES];
+            Arrays.fill(minimums, Long.MAX_VALUE);
+            int n = normalized.length();
+            for (int i = 0; i < Math.max(1, n - 1); i++) {
+                long gram = n == 1 ? normalized.charAt(0) : ((long) normalized.charAt(i) << 16) | normalized.charAt(i + 1);
+                for (int h = 0; h < TM_HASHES; h++) {
+                    minimums[h] = Math.min(minimums[h], hash(gram, SEEDS[h]));
+                }
+            }
+            long[] bands = new long[TM_HASHES / TM_ROWS];
+            for (int b = 0; b < bands.length; b++) {
+                long key = b;
+                for (int r = 0; r < TM_ROWS; r++) {
+                    key = hash(key ^ minimums[b * TM_ROWS + r], SEEDS[r]);
+                }
+                bands[b] = key;
+            }
+            return bands;
+        }
+
+        // 编辑距离换算成 0~1 的相似度
+        static double similarity(String a, String b) {
+            if (a.equals(b)) {
+                return 1;
+            }
+            int[] previous = new int[b.length() + 1];
+            int[] current = new int[b.length() + 1];
+            for (int j = 0; j <= b.length(); j++) {
+                previous[j] = j;
+            }
+            for (int i = 1; i <= a.length(); i++) {
+                current[0] = i;
+                for (int j = 1; j <= b.length(); j++) {
+                    int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                    current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                }
+                int[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            return 1 - (double) previous[b.length()] / Math.max(a.length(), b.length());
+        }
+
+        void replace(String group, String file, List<TranslationArea> page) {
+            lock.writeLock().lock();
+            try {
+                Map<String, Counted> files = pages.computeIfAbsent(group, g -> new HashMap<>());
+                Counted old = files.put(file, count(page));
+                if (old != null) {
+                    uncount(old);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // 初始建索引时使用，已登记的页面以保存时的内容为准
+        void addIfAbsent(String group, String file, List<TranslationArea> page) {
+            lock.writeLock().lock();
+            try {
+                Map<String, Counted> files = pages.computeIfAbsent(group, g -> new HashMap<>());
+                if (!files.containsKey(file)) {
+                    files.put(file, count(page));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void removeGroup(String group) {
+            lock.writeLock().lock();
+            try {
+                Map<String, Counted> files = pages.remove(group);
+                if (files != null) {
+                    files.values().forEach(this::uncount);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void renameGroup(String oldGroup, String newGroup) {
+            lock.writeLock().lock();
+            try {
+                Map<String, Counted> files = pages.remove(oldGroup);
+                if (files != null) {
+                    pages.put(newGroup, files);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // 原文或译文为空的区域没有参考价值，不计入
+        private Counted count(List<TranslationArea> page) {
+            Source[] counted = new Source[page.size()];
+            String[] texts = new String[page.size()];
+            int n = 0;
+            for (TranslationArea area : page) {
+                String normalized = normalize(area.original);
+                String translation = area.translation != null ? area.translation.trim() : "";
+                if (normalized.isEmpty() || translation.isEmpty()) {
+                    continue;
+                }
+                Source source = sources.get(normalized);
+                if (source == null) {
+                    source = new Source(area.original.trim(), normalized);
+                    sources.put(source.normalized, source);
+                    for (long band : bands(normalized)) {
+                        buckets.add(band, source);
+                    }
+                }
+                source.refs++;
+                counted[n] = source;
+                texts[n++] = source.count(translation, 1);
+            }
+            return n == 0 ? Counted.EMPTY : new Counted(Arrays.copyOf(counted, n), Arrays.copyOf(texts, n));
+        }
+
+        private void uncount(Counted counted) {
+            for (int i = 0; i < counted.sources.length; i++) {
+                Source source = counted.sources[i];
+                source.refs--;
+                source.count(counted.texts[i], -1);
+                if (source.refs <= 0) {
+                    sources.remove(source.normalized);
+                    for (long band : bands(source.normalized)) {
+                        buckets.remove(band, source);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 取与 query 最相近的 limit 条原文及其译法（按次数从多到少），相似度低于 minSimilarity 的不返回。
+         * 完全相同的原文直接查表；只核对命中桶数最多的 TM_MAX_CANDIDATES 个候选，跳过超过 TM_MAX_BUCKET 的大桶，
+         * 耗时与语料总量基本无关。
+         */
+        Result suggest(String query, int limit, double minSimilarity) {
+            long start = System.nanoTime();
+            Result result = new Result();
+            result.query = query;
+            result.complete = ready;
+            String normalized = normalize(query);
+            if (normalized.isEmpty()) {
+                return result;
+            }
+            List<Suggestion> scored = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                Map<Source, Integer> hits = new HashMap<>();
+                Source exact = sources.get(normalized);
+                if (exact != null) {
+                    // 排在所有只靠桶命中的候选之前
+                    hits.put(exact, TM_HASHES);
+                }
+                for (long band : bands(normalized)) {
+                    Object bucket = buckets.get(band);
+                    if (bucket instanceof Source) {
+                        hits.merge((Source) bucket, 1, Integer::sum);
+                    } else if (bucket != null && ((Source[]) bucket).length <= TM_MAX_BUCKET) {
+                        // 特别大的桶来自极常见的字组合，区分度低，跳过
+                        for (Source source : (Source[]) bucket) {
+                            hits.merge(source, 1, Integer::sum);
+                        }
+                    }
+                }
+                List<Map.Entry<Source, Integer>> candidates = new ArrayList<>(hits.entrySet());
+                if (candidates.size() > TM_MAX_CANDIDATES) {
+                    candidates.sort(Map.Entry.<Source, Integer>comparingByValue().reversed());
+                    candidates = candidates.subList(0, TM_MAX_CANDIDATES);
+                }
+                for (Map.Entry<Source, Integer> candidate : candidates) {
+                    Source source = candidate.getKey();
+                    double similarity = similarity(normalized, source.normalized);
+                    if (similarity < minSimilarity) {
+                        continue;
+                    }
+                    Suggestion suggestion = new Suggestion();
+                    suggestion.original = source.original;
+                    suggestion.similarity = similarity;
+                    for (int i = 0; i < source.size; i++) {
+                        suggestion.translations.add(new Choice(source.texts[i], source.counts[i]));
+                    }
+                    suggestion.translations.sort(Comparator.comparingInt((Choice choice) -> choice.count).reversed());
+                    scored.add(suggestion);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            scored.sort(Comparator.comparingDouble((Suggestion suggestion) -> suggestion.similarity).reversed());
+            result.suggestions = scored.size() > limit ? new ArrayList<>(scored.subList(0, limit)) : scored;
+            result.tookMs = (System.nanoTime() - start) / 1_000_000.0;
+            return result;
+        }
+
+        void markReady() {
+            ready = true;
+        }
+
+        int sources() {
+            return sources.size();
+        }
+    }
+
+    /**
+     * 分块续传的上传会话。初始化时在 uploads/.uploads 下预留与文件同样大小的 .part 文件，
+     * 各分块按偏移直接写入同一个 FileChannel，可以并行上传、失败后只补传缺的块；
+     * 全部到齐后读一遍算摘要，把 .part 移动（同一文件系统内是改名）进图片存储，数据只落盘一次。
+     * 会话只保存在内存里，服务重启后未完成的上传需要重新开始。
+     */
+    static class UploadSessions {
+        static class Session {
+            final String id;
+            final String group;
+            final String filename;
+            final long size;
+            final int chunkSize;
+            final int chunks;
+            final Path part;
+            final FileChannel channel;
+            final BitSet received = new BitSet();
+            long receivedBytes;
+            volatile long touched = System.currentTimeMillis();
+
+            Session(String id, String group, String filename, long size, Path part, FileChannel channel) {
+                this.id = id;
+                this.group = group;
+                this.filename = filename;
+                this.size = size;
+                this.chunkSize = UPLOAD_CHUNK_SIZE;
+                this.chunks = (int) Math.max(1, (size + UPLOAD_CHUNK_SIZE - 1) / UPLOAD_CHUNK_SIZE);
+                this.part = part;
+                this.channel = channel;
+            }
+
+            long chunkLength(int index) {
+                return Math.min(chunkSize, size - (long) index * chunkSize);
+            }
+
+            synchronized Map<String, Object> progress() {
+                Map<String, Object> progress = new LinkedHashMap<>();
+                progress.put("id", id);
+                progress.put("group", group);
+                progress.put("filename", filename);
+                progress.put("size", size);
+                progress.put("chunkSize", chunkSize);
+                progress.put("received", receivedBytes);
+                List<Integer> missing = new ArrayList<>();
+                for (int i = received.nextClearBit(0); i < chunks; i = received.nextClearBit(i + 1)) {
+                    missing.add(i);
+                }
+                progress.put("missing", missing);
+                return progress;
+            }
+        }
+
+        private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+        static Path directory() {
+            return Paths.get(UPLOAD_DIR, UPLOAD_SESSION_DIR);
+        }
+
+        // 启动时清掉上次遗留的 .part 文件
+        static void cleanStale() throws IOException {
+            Path dir = directory();
+            if (Files.exists(dir)) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                    for (Path file : stream) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+
+        Session create(String group, String filename, long size) throws IOException {
+            purgeIdle();
+            String id = UUID.randomUUID().toString().replace("-", "");
+            Path dir = Files.createDirectories(directory());
+            Path part = dir.resolve(id + ".part");
+            FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                // 预先把文件扩到最终大小，各分块写入时不必来回扩展文件
+                if (size > 0) {
+                    channel.write(ByteBuffer.allocate(1), size - 1);
+                }
+            } catch (IOException e) {
+                channel.close();
+                Files.deleteIfExists(part);
+                throw e;
+            }
+            Session session = new Session(id, group, filename, size, part, channel);
+            sessions.put(id, session);
+            return session;
+        }
+
+        Session get(String id) {
+            Session session = sessions.get(id);
+            if (session != null) {
+                session.touched = System.currentTimeMillis();
+            }
+            return session;
+        }
+
+        /**
+         * 把请求体按偏移写入 .part。偏移必须落在分块边界上，长度必须等于该块长度；
+         * 同一块重复上传会覆盖原内容，已收到的字节数不重复计算。
+         */
+        void writeChunk(Session session, long offset, InputStream in) throws IOException {
+            if (offset < 0 || offset % session.chunkSize != 0 || offset >= Math.max(1, session.size)) {
+                throw new IllegalArgumentException("偏移必须是分块大小的整数倍");
+            }
+            int index = (int) (offset / session.chunkSize);
+            long expected = session.chunkLength(index);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(EXPORT_BUFFER_SIZE, Math.max(1, expected)));
+            ReadableByteChannel source = Channels.newChannel(in);
+            long written = 0;
+            int read;
+            while ((read = source.read(buffer)) >= 0) {
+                if (read == 0 && buffer.hasRemaining()) {
+                    continue;
+                }
+                buffer.flip();
+                if (written + buffer.remaining() > expected) {
+                    throw new IllegalArgumentException("分块长度超过 " + expected + " 字节");
+                }
+                while (buffer.hasRemaining()) {
+                    written += session.channel.write(buffer, offset + written);
+                }
+                buffer.clear();
+            }
+            if (written != expected) {
+                throw new IllegalArgumentException("分块长度应为 " + expected + " 字节，实际收到 " + written + " 字节");
+            }
+            metrics.uploadBytes.add(written);
+            synchronized (session) {
+                if (!session.received.get(index)) {
+                    session.received.set(index);
+                    session.receivedBytes += expected;
+                }
+            }
+        }
+
+        // 全部分块到齐后收进图片存储，返回 null 表示还有缺块
+        ObjectStore.Entry complete(Session session) throws IOException {
+            synchronized (session) {
+                if (session.received.cardinality() < session.chunks && session.size > 0) {
+                    return null;
+                }
+                sessions.remove(session.id);
+            }
+            session.channel.close();
+            try {
+                return objectStore.putFile(session.group, session.filename, session.part);
+            } catch (IOException e) {
+                // 会话已经移除，客户端要重新上传，分块文件留着没有用
+                Files.deleteIfExists(session.part);
+                throw e;
+            }
+        }
+
+        void abort(Session session) throws IOException {
+            sessions.remove(session.id);
+            session.channel.close();
+            Files.deleteIfExists(session.part);
+        }
+
+        // 长时间没有动静的会话视为放弃
+        private void purgeIdle() {
+            long deadline = System.currentTimeMillis() - UPLOAD_SESSION_IDLE_MS;
+            for (Session session : sessions.values()) {
+                if (session.touched < deadline) {
+                    try {
+                        abort(session);
+                    } catch (IOException e) {
+                        System.err.println("清理上传会话失败: " + session.id + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 后台任务：删除、重命名分组和整组导出、嵌字打包这类耗时操作放到有界的线程池里执行，
+     * 请求立即返回任务编号，页面轮询 /jobs/编号 查看进度，导出结果写到 uploads/.jobs 下供下载。
+     * 任务在处理完每一项后检查取消请求；删除、重命名拿到分组锁后就不能再取消，以免分组只改了一半。
+     */
+    static class Jobs {
+        interface Work {
+            void run(Job job) throws Exception;
+        }
+
+        static class Job {
+            final String id;
+            final String type;
+            final String group;
+            final long created = System.currentTimeMillis();
+            // queued 排队中、running 执行中、done 完成、failed 失败、cancelled 已取消
+            private String state = "queued";
+            private boolean cancelRequested;
+            private boolean cancellable = true;
+            private volatile int done;
+            private volatile int total;
+            private String message;
+            private long finished;
+            private Path result;
+            private String resultName;
+            private String resultType;
+
+            Job(String id, String type, String group) {
+                this.id = id;
+                this.type = type;
+                this.group = group;
+            }
+
+            // 不经任务队列、直接在请求线程里执行时使用，进度和取消检查都不起作用
+            static Job inline(String type, String group) {
+                return new Job(null, type, group);
+            }
+
+            void progress(int done, int total) {
+                this.done = done;
+                this.total = total;
+            }
+
+            // 每处理完一项调用一次，已请求取消时抛出 CancellationException
+            synchronized void checkpoint() {
+                if (cancelRequested) {
+                    throw new CancellationException();
+                }
+            }
+
+            // 进入不能中断的阶段，之后的取消请求返回失败
+            synchronized void uncancellable() {
+                checkpoint();
+                cancellable = false;
+            }
+
+            synchronized void result(Path file, String name, String type) {
+                result = file;
+                resultName = name;
+                resultType = type;
+            }
+
+            synchronized Path resultFile() {
+                return "done".equals(state) ? result : null;
+            }
+
+            synchronized String resultName() {
+                return resultName;
+            }
+
+            synchronized String resultType() {
+                return resultType;
+            }
+
+            synchronized boolean finished() {
+                return finished != 0;
+            }
+
+            private synchronized boolean start() {
+                if (!"queued".equals(state)) {
+                    return false;
+                }
+                state = "running";
+                return true;
+            }
+
+            private synchronized void finish(String state, String message) {
+                this.state = state;
+                this.message = message;
+                this.finished = System.currentTimeMillis();
+            }
+
+            // 排队中的任务直接取消；执行中的任务做完当前一项后停下
+            private synchronized boolean cancel() {
+                if ("queued".equals(state)) {
+                    finish("cancelled", "已取消");
+                    return true;
+                }
+                if (!"running".equals(state) || !cancellable) {
+                    return false;
+                }
+                cancelRequested = true;
+                return true;
+            }
+
+            synchronized Map<String, Object> status() {
+                Map<String, Object> status = new LinkedHashMap<>();
+                status.put("id", id);
+                status.put("type", type);
+                status.put("group", group);
+                status.put("state", state);
+                status.put("done", done);
+                status.put("total", total);
+                status.put("cancelling", cancelRequested && "running".equals(state));
+                if (message != null) {
+                    status.put("message", message);
+                }
+                if ("done".equals(state) && result != null) {
+                    status.put("result", "/jobs/" + id + "/result");
+                }
+                return status;
+            }
+        }
+
+        private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+        private final ThreadPoolExecutor workers = new ThreadPoolExecutor(
+            JOB_WORKERS, JOB_WORKERS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(JOB_QUEUE_SIZE), r -> {
+                Thread t = new Thread(r, "job-worker");
+                t.setDaemon(true);
+                return t;
+            });
+
+        static Path directory() {
+            return Paths.get(UPLOAD_DIR, JOB_DIR);
+        }
+
+        // 启动时清掉上次留下的结果文件，任务本身只在内存里
+        static void cleanStale() throws IOException {
+            Path dir = directory();
+            if (Files.exists(dir)) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                    for (Path file : stream) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+
+        // 结果文件的位置，任务写入后调用 Job.result 登记
+        static Path resultPath(Job job, String extension) throws IOException {
+            return Files.createDirectories(directory()).resolve(job.id + "." + extension);
+        }
+
+        /**
+         * 提交任务；排队已满时抛出 RejectedExecutionException。
+         */
+        Job submit(String type, String group, Work work) {
+            purgeFinished();
+            Job job = new Job(UUID.randomUUID().toString().replace("-", ""), type, group);
+            jobs.put(job.id, job);
+            try {
+                workers.execute(() -> run(job, work));
+            } catch (RejectedExecutionException e) {
+                jobs.remove(job.id);
+                throw e;
+            }
+            return job;
+        }
+
+        private void run(Job job, Work work) {
+            if (!job.start()) {
+                return;
+            }
+            try {
+                work.run(job);
+                job.finish("done", null);
+            } catch (CancellationException e) {
+                deleteResult(job);
+                job.finish("cancelled", "已取消");
+            } catch (Exception e) {
+                System.err.println("后台任务失败: " + job.type + " " + job.group + ": " + e.getMessage());
+                deleteResult(job);
+                job.finish("failed", e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+        }
+
+        Job get(String id) {
+            return jobs.get(id);
+        }
+
+        boolean cancel(Job job) {
+            return job.cancel();
+        }
+
+        // 结束超过 JOB_KEEP_MS 的任务连同结果文件一起清掉
+        private void purgeFinished() {
+            long deadline = System.currentTimeMillis() - JOB_KEEP_MS;
+            for (Job job : jobs.values()) {
+                boolean expired;
+                synchronized (job) {
+                    expired = job.finished != 0 && job.finished < deadline;
+                }
+                if (expired) {
+                    jobs.remove(job.id);
+                    deleteResult(job);
+                }
+            }
+        }
+
+        private static void deleteResult(Job job) {
+            Path file;
+            synchronized (job) {
+                file = job.result;
+                job.result = null;
+            }
+            if (file == null) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.err.println("删除任务结果失败: " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * /metrics 的数据，Prometheus 文本格式。请求耗时由 before/afterAfter 过滤器按路由记入直方图，
+     * 计数全部用 LongAdder，热路径上只是几次没有竞争的加法。路由名取地址第一段并限定在已知路由内，
+     * 不会随分组名、文件名增长。长轮询请求只计到挂起为止。
+     */
+    static class Metrics {
+        // 耗时分桶上界（秒），最后还有一个 +Inf
+        private static final double[] BUCKETS = { 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30 };
+        private static final Set<String> ROUTES = new HashSet<>(Arrays.asList(
+            "group", "upload", "upload-session", "new-group", "delete-group", "rename-group", "edit", "api", "save",
+            "export", "export-zip", "cache-stats", "search", "tm", "render", "render-zip", "collab", "jobs", "assets",
+            "thumb", "preview", "image", "metrics"));
+        private static final String START_ATTRIBUTE = "metrics.start";
+
+        static class Histogram {
+            final String route;
+            final String method;
+            // 各桶单独计数，输出时再累加成 Prometheus 要求的累计值
+            final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+            final LongAdder sumNanos = new LongAdder();
+            final LongAdder errors = new LongAdder();
+
+            Histogram(String route, String method) {
+                this.route = route;
+                this.method = method;
+                for (int i = 0; i < buckets.length; i++) {
+                    buckets[i] = new LongAdder();
+                }
+            }
+
+            void observe(long nanos) {
+                int i = 0;
+                while (i < BUCKETS.length && nanos > BUCKETS[i] * 1e9) {
+                    i++;
+                }
+                buckets[i].increment();
+                sumNanos.add(nanos);
+            }
+        }
+
+        private final Map<String, Histogram> requests = new ConcurrentHashMap<>();
+        private final Map<String, Long> groupLoadNanos = new ConcurrentHashMap<>();
+        final LongAdder uploadBytes = new LongAdder();
+        final LongAdder journalBytes = new LongAdder();
+        final LongAdder journalAppends = new LongAdder();
+        final LongAdder translationFileBytes = new LongAdder();
+        final LongAdder translationFileWrites = new LongAdder();
+        final LongAdder groupLoads = new LongAdder();
+
+        static String route(String path) {
+            if (path == null || path.equals("/")) {
+                return "home";
+            }
+            int end = path.indexOf('/', 1);
+            String first = end < 0 ? path.substring(1) : path.substring(1, end);
+            if (ROUTES.contains(first)) {
+                return first;
+            }
+            // 旧版图片地址 /分组/文件名
+            return end > 0 && path.indexOf('/', end + 1) < 0 ? "legacy-image" : "other";
+        }
+
+        void start(spark.Request req) {
+            req.raw().setAttribute(START_ATTRIBUTE, System.nanoTime());
+        }
+
+        void finish(spark.Request req, spark.Response res) {
+            Object start = req.raw().getAttribute(START_ATTRIBUTE);
+            if (!(start instanceof Long)) {
+                return;
+            }
+            long nanos = System.nanoTime() - (Long) start;
+            String route = route(req.pathInfo());
+            String method = req.requestMethod();
+            Histogram histogram = requests.computeIfAbsent(method + " " + route, key -> new Histogram(route, method));
+            histogram.observe(nanos);
+            if (res.raw().getStatus() >= 500) {
+                histogram.errors.increment();
+            }
+        }
+
+        void groupLoaded(String group, long nanos) {
+            groupLoads.increment();
+            groupLoadNanos.put(group, nanos);
+        }
+
+        void groupRemoved(String group) {
+            groupLoadNanos.remove(group);
+        }
+
+        String render() {
+            StringBuilder out = new StringBuilder(4096);
+            List<Histogram> histograms = new ArrayList<>(requests.values());
+            histograms.sort(Comparator.comparing((Histogram h) -> h.route).thenComparing(h -> h.method));
+
+            header(out, "comic_http_request_duration_seconds", "histogram", "各路由请求处理耗时");
+            for (Histogram h : histograms) {
+                String labels = "route=\"" + h.route + "\",method=\"" + h.method + "\"";
+                long cumulative = 0;
+                for (int i = 0; i < h.buckets.length; i++) {
+                    cumulative += h.buckets[i].sum();
+                    out.append("comic_http_request_duration_seconds_bucket{").append(labels).append(",le=\"")
+                        .append(i < BUCKETS.length ? Double.toString(BUCKETS[i]) : "+Inf").append("\"} ").append(cumulative).append('\n');
+                }
+                out.append("comic_http_request_duration_seconds_sum{").append(labels).append("} ").append(h.sumNanos.sum() / 1e9).append('\n');
+                out.append("comic_http_request_duration_seconds_count{").append(labels).append("} ").append(cumulative).append('\n');
+            }
+            header(out, "comic_http_server_errors_total", "counter", "各路由返回 5xx 的请求数");
+            for (Histogram h : histograms) {
+                out.append("comic_http_server_errors_total{route=\"").append(h.route).append("\",method=\"").append(h.method)
+                    .append("\"} ").append(h.errors.sum()).append('\n');
+            }
+
+            counter(out, "comic_upload_bytes_total", "上传收到的图片字节数（含分块上传）", uploadBytes.sum());
+            counter(out, "comic_journal_bytes_total", "保存时追加到分组日志的字节数", journalBytes.sum());
+            counter(out, "comic_journal_appends_total", "分组日志追加次数（合并后的一次写入）", journalAppends.sum());
+            counter(out, "comic_translations_json_bytes_total", "整组重写 translations.json 的字节数（snapshot 模式保存、日志压缩）", translationFileBytes.sum());
+            counter(out, "comic_translations_json_writes_total", "整组重写 translations.json 的次数", translationFileWrites.sum());
+            counter(out, "comic_group_loads_total", "从磁盘加载分组的次数", groupLoads.sum());
+            counter(out, "comic_group_cache_hits_total", "分组缓存命中次数", groupCache.hits.sum());
+            counter(out, "comic_group_cache_misses_total", "分组缓存未命中次数", groupCache.misses.sum());
+            counter(out, "comic_group_cache_evictions_total", "分组缓存淘汰次数", groupCache.evictions.sum());
+
+            header(out, "comic_group_load_seconds", "gauge", "各分组最近一次从磁盘加载的耗时（启动预加载或第一次访问）");
+            for (Map.Entry<String, Long> entry : new TreeMap<>(groupLoadNanos).entrySet()) {
+                out.append("comic_group_load_seconds{group=\"").append(escape(entry.getKey())).append("\"} ")
+                    .append(entry.getValue() / 1e9).append('\n');
+            }
+            header(out, "comic_group_cache_bytes", "gauge", "已加载分组的估算内存");
+            out.append("comic_group_cache_bytes ").append(groupCache.totalBytes.get()).append('\n');
+            return out.toString();
+        }
+
+        private static void header(StringBuilder out, String name, String type, String help) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+
+        private static void counter(StringBuilder out, String name, String help, long value) {
+            header(out, name, "counter", help);
+            out.append(name).append(' ').append(value).append('\n');
+        }
+
+        // 标签值里的反斜杠、引号、换行需要转义
+        private static String escape(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+    }
+
+    /**
+     * 全部分组的二进制快照，启动时内存映射，按索引只解码用到的分组。
+     * 每个分组记录了写入时 translations.json 与日志的大小和修改时间，不一致就回退到 JSON。
+     * 关闭服务时写成 translations.bin.new，下次启动再替换旧文件（已映射的文件在 Windows 上不能覆盖）。
+     *
+     * 格式：魔数、版本、分组数；索引（分组名、指纹、偏移、长度）；各分组数据块
+     * （页数，每页文件名、区域数，每个区域 x/y/width/height、原文、译文）。字符串为长度加 UTF-8。
+     */
+    static class BinarySnapshot {
+        private static final int MAGIC = 0x43544253;
+        // 2：每页增加版本号，每个区域增加编号
+        private static final int VERSION = 2;
+        private static final LongAdder hits = new LongAdder();
+        private static volatile ByteBuffer mapped;
+        private static volatile Map<String, IndexEntry> index = Collections.emptyMap();
+
+        static class IndexEntry {
+            final long[] fingerprint;
+            final int offset;
+            final int length;
+
+            IndexEntry(long[] fingerprint, int offset, int length) {
+                this.fingerprint = fingerprint;
+                this.offset = offset;
+                this.length = length;
+            }
+        }
+
+        static void open() {
+            Path file = Paths.get(UPLOAD_DIR, BINARY_SNAPSHOT_FILE);
+            Path pending = Paths.get(UPLOAD_DIR, BINARY_SNAPSHOT_FILE + ".new");
+            try {
+                if (Files.exists(pending)) {
+                    Files.move(pending, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                if (!Files.exists(file)) {
+                    return;
+                }
+                ByteBuffer buffer;
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    System.err.println("二进制快照格式不匹配，已忽略");
+                    return;
+                }
+                int count = buffer.getInt();
+                Map<String, IndexEntry> entries = new HashMap<>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    String group = readString(buffer);
+                    long[] fingerprint = new long[6];
+                    for (int j = 0; j < fingerprint.length; j++) {
+                        fingerprint[j] = buffer.getLong();
+                    }
+                    entries.put(group, new IndexEntry(fingerprint, buffer.getInt(), buffer.getInt()));
+                }
+                mapped = buffer;
+                index = entries;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("读取二进制快照失败: " + e.getMessage());
+            }
+        }
+
+        // 快照中该分组仍然有效时返回解码结果，否则返回 null
+        static Map<String, List<TranslationArea>> read(Path groupPath) throws IOException {
+            IndexEntry entry = index.get(groupPath.getFileName().toString());
+            if (entry == null || !Arrays.equals(entry.fingerprint, fingerprint(groupPath))) {
+                return null;
+            }
+            ByteBuffer buffer = mapped.duplicate();
+            buffer.position(entry.offset);
+            int pageCount = buffer.getInt();
+            Map<String, List<TranslationArea>> pages = new ConcurrentHashMap<>(pageCount * 2);
+            for (int i = 0; i < pageCount; i++) {
+                String filename = readString(buffer);
+                long version = buffer.getLong();
+                int areaCount = buffer.getInt();
+                PackedPage.Builder areas = new PackedPage.Builder(areaCount);
+                for (int j = 0; j < areaCount; j++) {
+                    areas.add(readString(buffer), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                        readString(buffer), readString(buffer));
+                }
+                pages.put(filename, areas.build(version));
+            }
+            hits.increment();
+            return pages;
+        }
+
+        // 已加载且没有待写数据的分组从内存编码，未加载的分组沿用旧快照中仍然有效的数据块
+        static void write() {
+            long start = System.nanoTime();
+            Map<String, byte[]> blocks = new LinkedHashMap<>();
+            Map<String, long[]> fingerprints = new HashMap<>();
+            try {
+                for (String group : listGroups()) {
+                    Path groupPath = Paths.get(UPLOAD_DIR, group);
+                    GroupLocks.Held held = groupLocks.exclusive(group);
+                    try {
+                        long[] fingerprint = fingerprint(groupPath);
+                        Map<String, List<TranslationArea>> pages = translations.get(group);
+                        byte[] block = null;
+                        if (pages != null && !saveCoalescer.hasPending(group)) {
+                            block = encode(pages);
+                        } else {
+                            IndexEntry entry = index.get(group);
+                            if (entry != null && Arrays.equals(entry.fingerprint, fingerprint)) {
+                                block = new byte[entry.length];
+                                ByteBuffer buffer = mapped.duplicate();
+                                buffer.position(entry.offset);
+                                buffer.get(block);
+                            }
+                        }
+                        if (block != null) {
+                            blocks.put(group, block);
+                            fingerprints.put(group, fingerprint);
+                        }
+                    } finally {
+                        held.close();
+                    }
+                }
+
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(header);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(blocks.size());
+                int headerLength = 12;
+                for (String group : blocks.keySet()) {
+                    headerLength += 4 + group.getBytes(StandardCharsets.UTF_8).length + 6 * 8 + 8;
+                }
+                int offset = headerLength;
+                for (Map.Entry<String, byte[]> block : blocks.entrySet()) {
+                    writeString(out, block.getKey());
+                    for (long value : fingerprints.get(block.getKey())) {
+                        out.writeLong(value);
+                    }
+                    out.writeInt(offset);
+                    out.writeInt(block.getValue().length);
+                    offset += block.getValue().length;
+                }
+
+                Path pending = Paths.get(UPLOAD_DIR, BINARY_SNAPSHOT_FILE + ".new");
+                try (FileChannel channel = FileChannel.open(pending,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    writeFully(channel, ByteBuffer.wrap(header.toByteArray()));
+                    for (byte[] block : blocks.values()) {
+                        writeFully(channel, ByteBuffer.wrap(block));
+                    }
+                    channel.force(true);
+                }
+                System.out.println("二进制快照已写入 " + blocks.size() + " 个分组，用时 "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            } catch (IOException e) {
+                System.err.println("写入二进制快照失败: " + e.getMessage());
+            }
+        }
+
+        private static byte[] encode(Map<String, List<TranslationArea>> pages) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(pages.size());
+            for (Map.Entry<String, List<TranslationArea>> page : pages.entrySet()) {
+                writeString(out, page.getKey());
+                out.writeLong(pageVersion(page.getValue()));
+                out.writeInt(page.getValue().size());
+                for (TranslationArea area : page.getValue()) {
+                    writeString(out, area.id);
+                    out.writeInt(area.x);
+                    out.writeInt(area.y);
+                    out.writeInt(area.width);
+                    out.writeInt(area.height);
+                    writeString(out, area.original);
+                    writeString(out, area.translation);
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        // translations.json、日志、压缩中日志的大小和修改时间，文件不存在记为 -1
+        private static long[] fingerprint(Path groupPath) throws IOException {
+            long[] fingerprint = new long[6];
+            String[] names = { TRANSLATION_FILE, JOURNAL_FILE, JOURNAL_COMPACTING_FILE };
+            for (int i = 0; i < names.length; i++) {
+                Path file = groupPath.resolve(names[i]);
+                boolean exists = Files.exists(file);
+                fingerprint[i * 2] = exists ? Files.size(file) : -1;
+                fingerprint[i * 2 + 1] = exists ? Files.getLastModifiedTime(file).toMillis() : -1;
+            }
+            return fingerprint;
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(ByteBuffer buffer) {
+            int length = buffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * 写后合并层：保存请求先更新内存，同一分组在窗口期内的多次保存合并成一次写入。
+     * 不同分组并行写盘，同一分组的写入由 io 锁串行，保证落盘顺序与保存顺序一致。
+     */
+    static class SaveCoalescer {
+        private final ScheduledExecutorService flusher = Executors.newScheduledThreadPool(SAVE_FLUSH_THREADS, r -> {
+            Thread t = new Thread(r, "save-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        private final Map<String, PendingSave> pending = new ConcurrentHashMap<>();
+
+        static class PendingSave {
+            // 每个文件一条待写记录：整页保存覆盖之前的记录，增量保存接在待写的操作后面
+            final Map<String, JournalRecord> records = new LinkedHashMap<>();
+            final CompletableFuture<Void> written = new CompletableFuture<>();
+            // 连续写入失败的次数，决定下次重试的间隔
+            int failures;
+        }
+
+        // 整页保存；返回的 Future 在这次保存真正写入磁盘后完成，结果是新的页面版本
+        CompletableFuture<Long> submit(String group, String filename, List<TranslationArea> areas) throws IOException {
+            ReentrantReadWriteLock lock = groupLocks.data(group);
+            lock.writeLock().lock();
+            try {
+                // 必须先加载整个分组，否则内存里只有这一页，压缩时会丢掉其他页面
+                Map<String, List<TranslationArea>> pages = groupCache.loadLocked(group, true);
+                PackedPage page = PackedPage.of(areas, pageVersion(pages.get(filename)) + 1);
+                return commitLocked(group, pages, filename, page, null, null);
+            } finally {
+                lock.writeLock().unlock();
+                groupCache.evictIfNeeded(group);
+            }
+        }
+
+        // 增量保存：基础版本与当前版本一致才应用，操作本身不合法时抛出 IllegalArgumentException
+        CompletableFuture<Long> patch(String group, String filename, PagePatch patch)
+                throws IOException, VersionConflictException {
+            ReentrantReadWriteLock lock = groupLocks.data(group);
+            lock.writeLock().lock();
+            try {
+                Map<String, List<TranslationArea>> pages = groupCache.loadLocked(group, true);
+                List<TranslationArea> old = pages.get(filename);
+                PackedPage current = PackedPage.of(old != null ? old : Collections.emptyList(), pageVersion(old));
+                if (patch.base != current.version) {
+                    throw new VersionConflictException(current);
+                }
+                PackedPage page = current.apply(patch.ops, current.version + 1, true);
+                return commitLocked(group, pages, filename, page, new ArrayList<>(patch.ops), patch.client);
+            } finally {
+                lock.writeLock().unlock();
+                groupCache.evictIfNeeded(group);
+            }
+        }
+
+        // 调用方持有分组写锁。页面提交后不再修改，读者拿到的列表引用就是一致的快照
+        private CompletableFuture<Long> commitLocked(String group, Map<String, List<TranslationArea>> pages,
+                String filename, PackedPage page, List<AreaOp> ops, String client) {
+            groupCache.pageReplaced(group, pages.put(filename, page), page);
+            if (!"off".equals(TEXT_INDEX)) {
+                searchIndex.replace(group, filename, page);
+                translationMemory.replace(group, filename, page);
+            }
+            collabHub.publish(group, filename, page, ops != null ? new ArrayList<>(ops) : null, client);
+            JournalRecord record = new JournalRecord(filename, page.version, ops == null ? page : null, ops);
+            // 在 compute 内登记页面，不会落入已被 flush 取走的批次
+            return pending.compute(group, (g, save) -> {
+                if (save == null) {
+                    save = new PendingSave();
+                    flusher.schedule(() -> flush(g), SAVE_WINDOW_MS, TimeUnit.MILLISECONDS);
+                }
+                save.records.merge(filename, record, (queued, next) -> {
+                    if (next.ops == null) {
+                        return next;
+                    }
+                    // 待写的是整页记录时直接改写成新的整页，否则把操作接上
+                    if (queued.ops == null) {
+                        return new JournalRecord(filename, page.version, page, null);
+                    }
+                    queued.ops.addAll(next.ops);
+                    queued.version = next.version;
+                    return queued;
+                });
+                return save;
+            }).written.thenApply(ignored -> page.version);
+        }
+
+        boolean hasPending(String group) {
+            return pending.containsKey(group);
+        }
+
+        // 写出分组的待保存数据，写入失败时返回 false
+        boolean flush(String group) {
+            ReentrantLock io = groupLocks.io(group);
+            io.lock();
+            try {
+                PendingSave save = pending.remove(group);
+                if (save == null) {
+                    return true;
+                }
+                try {
+                    writeGroup(group, save.records.values());
+                    save.written.complete(null);
+                    return true;
+                } catch (IOException e) {
+                    System.err.println("保存翻译数据失败，稍后重试: " + group + ": " + e.getMessage());
+                    retryLater(group, save);
+                    return false;
+                }
+            } finally {
+                io.unlock();
+            }
+        }
+
+        // 写入失败时页面已经提交到内存、别人也看到了，不能再告诉客户端保存失败：
+        // 把这些页面重新登记为待写，等待写入的请求继续等到重试成功。调用方持有 io 锁
+        private void retryLater(String group, PendingSave failed) {
+            ReentrantReadWriteLock lock = groupLocks.data(group);
+            lock.readLock().lock();
+            try {
+                Map<String, List<TranslationArea>> pages = translations.get(group);
+                if (pages == null) {
+                    failed.written.completeExceptionally(new IOException("分组已不在内存中: " + group));
+                    return;
+                }
+                pending.compute(group, (g, save) -> {
+                    PendingSave retry = save != null ? save : new PendingSave();
+                    retry.failures = failed.failures + 1;
+                    // 失败批次里的增量操作可能只写了一部分，改用内存里的整页，重放时按版本覆盖
+                    for (String filename : failed.records.keySet()) {
+                        List<TranslationArea> page = pages.get(filename);
+                        if (page != null) {
+                            retry.records.put(filename, new JournalRecord(filename, pageVersion(page), page, null));
+                        }
+                    }
+                    retry.written.whenComplete((ignored, e) -> {
+                        if (e == null) {
+                            failed.written.complete(null);
+                        } else {
+                            failed.written.completeExceptionally(e);
+                        }
+                    });
+                    if (save == null) {
+                        long delay = Math.min(100L << Math.min(retry.failures, 6), SAVE_RETRY_MAX_MS);
+                        flusher.schedule(() -> flush(g), delay, TimeUnit.MILLISECONDS);
+                    }
+                    return retry;
+                });
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // 删除分组时丢弃尚未写入的保存
+        void discard(String group) {
+            PendingSave save = pending.remove(group);
+            if (save != null) {
+                save.written.completeExceptionally(new IOException("分组已删除: " + group));
+            }
+        }
+
+        // 关闭时写出全部待保存数据
+        void flushAll() {
+            new ArrayList<>(pending.keySet()).forEach(this::flush);
+        }
+    }
+
+    /**
+     * 每个任务一个虚拟线程的 Jetty 线程池。路由里读写文件阻塞时只挂起虚拟线程，
+     * 慢盘上的上传、保存再多也不会占满线程池、拖住其他请求。
+     * 虚拟线程需要 Java 21（19、20 需 --enable-preview），这里通过反射创建，编译和运行仍兼容 Java 17。
+     */
+    static class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+        private final ExecutorService executor;
+        private final AtomicInteger running = new AtomicInteger();
+
+        private VirtualThreadPool(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        // 当前 JDK 不支持虚拟线程时返回 null
+        static VirtualThreadPool create() {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return new VirtualThreadPool((ExecutorService) factory.invoke(null));
+            } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            executor.execute(() -> {
+                running.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+        }
+
+        @Override
+        public void join() throws InterruptedException {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // 等到线程池关闭
+            }
+        }
+
+        @Override
+        public int getThreads() {
+            return running.get();
+        }
+
+        @Override
+        public int getIdleThreads() {
+            return 0;
+        }
+
+        // 虚拟线程按需创建，不会不够用
+        @Override
+        public boolean isLowOnThreads() {
+            return false;
+        }
+
+        @Override
+        protected void doStop() {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 编辑页的静态文件，来自类路径下的 assets 目录（启动.bat 以程序目录为类路径，打成 jar 时随 jar 打包）。
+     * 启动时读入内存并预先压缩；编辑页外壳引用的其他文件改写成带内容摘要 ?v= 的地址，浏览器可以长期缓存。
+     */
+    static class Assets {
+        static class Asset {
+            final byte[] bytes;
+            final byte[] gzipped;
+            final String etag;
+            final String type;
+
+            Asset(byte[] bytes, String type) {
+                this.bytes = bytes;
+                this.gzipped = gzip(bytes);
+                this.etag = "\"" + ObjectStore.hex(ObjectStore.sha256().digest(bytes)).substring(0, 16) + "\"";
+                this.type = type;
+            }
+
+            String version() {
+                return etag.substring(1, etag.length() - 1);
+            }
+        }
+
+        private final Map<String, Asset> files = new HashMap<>();
+
+        void load() throws IOException {
+            for (String[] file : ASSET_FILES) {
+                try (InputStream in = ComicTranslator.class.getResourceAsStream("/assets/" + file[0])) {
+                    if (in != null) {
+                        files.put(file[0], new Asset(in.readAllBytes(), file[1]));
+                    }
+                }
+            }
+            Asset shell = files.get("editor.html");
+            if (shell == null) {
+                throw new IOException("类路径中没有 assets/editor.html");
+            }
+            if (!files.containsKey("fabric.min.js")) {
+                System.err.println("assets/fabric.min.js 不存在，编辑页无法使用；这个文件随代码提交，请重新获取代码");
+            }
+            String html = new String(shell.bytes, StandardCharsets.UTF_8);
+            for (Map.Entry<String, Asset> file : files.entrySet()) {
+                html = html.replace("\"/assets/" + file.getKey() + "\"",
+                    "\"/assets/" + file.getKey() + "?v=" + file.getValue().version() + "\"");
+            }
+            files.put("editor.html", new Asset(html.getBytes(StandardCharsets.UTF_8), shell.type));
+        }
+
+        Asset get(String name) {
+            return files.get(name);
+        }
+    }
+
+    /**
+     * 协作编辑的变更推送。编辑器用长轮询 /collab 拉取自己版本之后的变更，每页保留最近 COLLAB_HISTORY 条；
+     * 暂时没有新变更时用 Servlet 异步挂起请求，不占用线程，数百个编辑器同时等待也只是数百个 AsyncContext。
+     * 同一页 COLLAB_BATCH_MS 内的多次保存攒成一批再唤醒等待者，相同起点的等待者共用一份序列化结果。
+     * 加锁顺序为分组 data 锁 → 频道，频道锁内不取分组锁。
+     */
+    static class CollabHub {
+        // 一次保存：增量保存带 ops，整页保存带 areas；client 是发起保存的编辑器，它自己收到时跳过
+        static class Event {
+            final long version;
+            final String client;
+            final List<AreaOp> ops;
+            final List<TranslationArea> areas;
+
+            Event(long version, String client, List<AreaOp> ops, List<TranslationArea> areas) {
+                this.version = version;
+                this.client = client;
+                this.ops = ops;
+                this.areas = areas;
+            }
+        }
+
+        static class Channel {
+            final ArrayDeque<Event> history = new ArrayDeque<>();
+            final List<Waiter> waiters = new ArrayList<>();
+            // history 覆盖 (base, version] 之间的全部版本
+            long base;
+            long version;
+            boolean dispatchScheduled;
+            long lastPoll;
+
+            Channel(long version) {
+                this.base = version;
+                this.version = version;
+            }
+
+            Map<String, Object> since(long since) {
+                List<Event> events = new ArrayList<>();
+                for (Event event : history) {
+                    if (event.version > since) {
+                        events.add(event);
+                    }
+                }
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("version", version);
+                result.put("events", events);
+                return result;
+            }
+        }
+
+        static class Waiter implements AsyncListener {
+            final Channel channel;
+            final AsyncContext context;
+            final long since;
+            final AtomicBoolean done = new AtomicBoolean();
+
+            Waiter(Channel channel, AsyncContext context, long since) {
+                this.channel = channel;
+                this.context = context;
+                this.since = since;
+            }
+
+            void respond(byte[] body) {
+                try {
+                    context.getResponse().getOutputStream().write(body);
+                } catch (IOException | IllegalStateException e) {
+                    // 编辑器已经关闭
+                } finally {
+                    context.complete();
+                }
+            }
+
+            // 等到超时也没有变更：返回空列表，编辑器随即发起下一次轮询
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                detach();
+                expire();
+            }
+
+            void expire() {
+                if (done.compareAndSet(false, true)) {
+                    Map<String, Object> result = new LinkedHashMap<>();
+                    result.put("version", since);
+                    result.put("events", new ArrayList<>());
+                    respond(gson.toJson(result).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                detach();
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+                detach();
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+
+            private void detach() {
+                synchronized (channel) {
+                    channel.waiters.remove(this);
+                }
+            }
+        }
+
+        private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+        private final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "collab-dispatcher");
+            t.setDaemon(true);
+            return t;
+        });
+
+        CollabHub() {
+            dispatcher.scheduleWithFixedDelay(this::sweep, 1, 1, TimeUnit.MINUTES);
+        }
+
+        private static String key(String group, String filename) {
+            return group + "/" + filename;
+        }
+
+        /**
+         * 有新变更时立即返回；since 已不在保留范围内时返回整页内容（reset），编辑器据此重建；
+         * 否则挂起请求并返回 null，调用方不要再写响应。
+         */
+        String poll(String group, String filename, long since, HttpServletRequest request, HttpServletResponse response)
+                throws IOException {
+            Channel channel = channels.get(key(group, filename));
+            if (channel == null) {
+                // 在读锁下取当前版本建频道，与保存互斥，不会漏掉建频道前后的保存
+                ReentrantReadWriteLock lock = groupLocks.data(group);
+                Map<String, List<TranslationArea>> pages = groupCache.get(group);
+                lock.readLock().lock();
+                try {
+                    long version = pages != null ? pageVersion(pages.get(filename)) : 0;
+                    channel = channels.computeIfAbsent(key(group, filename), k -> new Channel(version));
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+            boolean wait;
+            synchronized (channel) {
+                channel.lastPoll = System.currentTimeMillis();
+                if (since >= channel.base && since < channel.version) {
+                    return gson.toJson(channel.since(since));
+                }
+                wait = since == channel.version;
+            }
+            if (wait) {
+                AsyncContext context = request.startAsync();
+                context.setTimeout(COLLAB_POLL_MS);
+                Waiter waiter = new Waiter(channel, context, since);
+                context.addListener(waiter);
+                // 先提交响应头，之后由分发线程写正文，请求线程不再碰响应。
+                // 慢连接上提交可能阻塞，不能持有频道锁，否则同一页的保存和分发都要跟着等
+                response.flushBuffer();
+                boolean missed;
+                synchronized (channel) {
+                    missed = since < channel.base;
+                    if (!missed) {
+                        channel.waiters.add(waiter);
+                        // 提交期间有保存时 publish 还看不到这个等待者，补一次分发
+                        if (since < channel.version && !channel.dispatchScheduled) {
+                            channel.dispatchScheduled = true;
+                            Channel ready = channel;
+                            dispatcher.execute(() -> dispatch(ready));
+                        }
+                    }
+                }
+                if (missed) {
+                    // 提交期间的保存多到历史装不下：按超时回空列表，编辑器下次轮询拿到整页
+                    waiter.expire();
+                }
+                return null;
+            }
+            List<TranslationArea> page = pageOf(group, filename);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("version", pageVersion(page));
+            result.put("reset", true);
+            result.put("areas", page);
+            return gson.toJson(result);
+        }
+
+        // 调用方持有分组写锁；没有编辑器打开这一页时什么也不做
+        void publish(String group, String filename, PackedPage page, List<AreaOp> ops, String client) {
+            Channel channel = channels.get(key(group, filename));
+            if (channel == null) {
+                return;
+            }
+            synchronized (channel) {
+                channel.history.addLast(new Event(page.version, client, ops, ops == null ? page : null));
+                channel.version = page.version;
+                while (channel.history.size() > COLLAB_HISTORY) {
+                    channel.base = channel.history.removeFirst().version;
+                }
+                if (!channel.waiters.isEmpty() && !channel.dispatchScheduled) {
+                    channel.dispatchScheduled = true;
+                    dispatcher.schedule(() -> dispatch(channel), COLLAB_BATCH_MS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        private void dispatch(Channel channel) {
+            List<Waiter> ready;
+            Map<Long, byte[]> bodies = new HashMap<>();
+            synchronized (channel) {
+                channel.dispatchScheduled = false;
+                ready = new ArrayList<>(channel.waiters);
+                channel.waiters.clear();
+                for (Waiter waiter : ready) {
+                    bodies.computeIfAbsent(waiter.since,
+                        since -> gson.toJson(channel.since(since)).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            for (Waiter waiter : ready) {
+                if (waiter.done.compareAndSet(false, true)) {
+                    waiter.respond(bodies.get(waiter.since));
+                }
+            }
+        }
+
+        // 一段时间没人轮询的频道连同历史一起丢掉，下次打开时重新建
+        private void sweep() {
+            long idleBefore = System.currentTimeMillis() - COLLAB_IDLE_MS;
+            channels.values().removeIf(channel -> {
+                synchronized (channel) {
+                    return channel.waiters.isEmpty() && channel.lastPoll < idleBefore;
+                }
+            });
+        }
+
+        int waiting() {
+            int count = 0;
+            for (Channel channel : channels.values()) {
+                synchronized (channel) {
+                    count += channel.waiters.size();
+                }
+            }
+            return count;
+        }
+    }
+
     public static void main(String[] args) {
-        loadTranslations();
+        long start = System.nanoTime();
+        if (BINARY_SNAPSHOT) {
+            BinarySnapshot.open();
+        }
+        if (CACHE_PRELOAD) {
+            loadTranslations();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            saveCoalescer.flushAll();
+            if (BINARY_SNAPSHOT) {
+                BinarySnapshot.write();
+            }
+        }, "save-shutdown"));
         configureServer();
         createUploadDirectory();
+        loadAssets();
+        listingIndex.start();
+        if ("startup".equals(TEXT_INDEX)) {
+            buildTextIndexesInBackground();
+        }
         setupRoutes();
+        Spark.awaitInitialization();
+        System.out.println("服务启动完成，用时 " + (System.nanoTime() - start) / 1_000_000 + " ms");
     }
 
     private static void configureServer() {
-        Spark.port(8080);
-        Spark.staticFiles.externalLocation(UPLOAD_DIR);
+        // 必须在第一个路由注册之前替换，之后 Spark 已经按默认工厂创建了服务器
+        if ("virtual".equals(SERVER_THREADS)) {
+            VirtualThreadPool pool = VirtualThreadPool.create();
+            if (pool != null) {
+                EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY, new EmbeddedJettyFactory().withThreadPool(pool));
+                System.out.println("请求处理使用虚拟线程");
+            } else {
+                System.out.println("当前 Java " + System.getProperty("java.version")
+                    + " 不支持虚拟线程（需要 Java 21，或 19、20 加 --enable-preview），使用默认线程池");
+            }
+        }
+        Spark.port(SERVER_PORT);
         Spark.exception(Exception.class, (ex, req, res) -> {
             ex.printStackTrace();
             res.status(500);
@@ -42,60 +3822,374 @@ public class ComicTranslator {
     private static void createUploadDirectory() {
         try {
             Files.createDirectories(Paths.get(UPLOAD_DIR));
+            UploadSessions.cleanStale();
+            Jobs.cleanStale();
+            objectStore.open();
         } catch (IOException e) {
             throw new RuntimeException("无法创建上传目录: " + e.getMessage());
         }
     }
 
+    private static void loadAssets() {
+        try {
+            assets.load();
+        } catch (IOException e) {
+            throw new RuntimeException("无法加载编辑页文件: " + e.getMessage());
+        }
+    }
+
     private static void setupRoutes() {
+        metricsFilters();
         homeRoute();
         groupRoute();
         uploadRoute();
+        chunkedUploadRoutes();
         newGroupRoute();
         deleteGroupRoute();
         renameGroupRoute();
         editRoute();
+        areasApiRoute();
         saveRoute();
         exportRoutes();
+        cacheStatsRoute();
+        searchRoute();
+        suggestRoute();
+        renderRoutes();
+        collabRoute();
+        jobRoutes();
+        metricsRoute();
+        assetRoute();
+        derivedImageRoutes();
+        imageRoute();
+        legacyImageRoute();
     }
 
-    private static void loadTranslations() {
-        try (DirectoryStream<Path> groupStream = Files.newDirectoryStream(Paths.get(UPLOAD_DIR))) {
-            for (Path groupPath : groupStream) {
-                if (Files.isDirectory(groupPath)) {
-                    String groupName = groupPath.getFileName().toString();
-                    Path translationFile = groupPath.resolve(TRANSLATION_FILE);
-                    
-                    if (Files.exists(translationFile)) {
-                        String json = new String(Files.readAllBytes(translationFile));
-                        Map<String, List<TranslationArea>> groupTranslations = gson.fromJson(json,
-                            new TypeToken<ConcurrentHashMap<String, List<TranslationArea>>>(){}.getType());
-                        translations.put(groupName, groupTranslations);
+    // 在后台逐组建立搜索索引和翻译记忆，只执行一次；持有分组读锁，与保存、删除、重命名互斥，不会覆盖保存时登记的新页面。
+    // 未加载的分组只临时读盘，两个索引都不持有页面，建完即可回收，不影响按需加载和缓存上限
+    private static void buildTextIndexesInBackground() {
+        if (!textIndexStarted.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                for (String group : listGroups()) {
+                    ReentrantReadWriteLock lock = groupLocks.data(group);
+                    lock.readLock().lock();
+                    try {
+                        Path groupPath = Paths.get(UPLOAD_DIR, group);
+                        if (!Files.isDirectory(groupPath)) {
+                            continue;
+                        }
+                        Map<String, List<TranslationArea>> pages = translations.get(group);
+                        if (pages == null) {
+                            pages = loadGroup(groupPath, false);
+                        }
+                        if (pages == null) {
+                            continue;
+                        }
+                        for (Map.Entry<String, List<TranslationArea>> page : pages.entrySet()) {
+                            searchIndex.addIfAbsent(group, page.getKey(), page.getValue());
+                            translationMemory.addIfAbsent(group, page.getKey(), page.getValue());
+                        }
+                    } catch (IOException | JsonSyntaxException e) {
+                        System.err.println("建立搜索索引失败: " + group + ": " + e.getMessage());
+                    } finally {
+                        lock.readLock().unlock();
                     }
                 }
+            } catch (IOException e) {
+                System.err.println("建立搜索索引失败: " + e.getMessage());
+            } finally {
+                searchIndex.markReady();
+                translationMemory.markReady();
             }
+            System.out.println("搜索索引和翻译记忆建立完成: " + searchIndex.areas() + " 个区域，"
+                + translationMemory.sources() + " 条原文，用时 " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }, "text-indexer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    // 预加载全部分组，各分组互不相关，按CPU核数并行读取
+    private static void loadTranslations() {
+        long start = System.nanoTime();
+        List<String> groups;
+        try {
+            groups = listGroups();
         } catch (IOException e) {
             System.out.println("无历史翻译数据可加载");
+            return;
         }
+        groups.parallelStream().forEach(groupName -> {
+            try {
+                groupCache.get(groupName);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        });
+        System.out.println("预加载 " + groups.size() + " 个分组，用时 " + (System.nanoTime() - start) / 1_000_000
+            + " ms，其中 " + BinarySnapshot.hits.sum() + " 个来自二进制快照");
     }
 
-    private static void saveTranslationsToFile(String group) {
-        Path groupPath = Paths.get(UPLOAD_DIR, group);
+    // 读取快照，再按顺序重放未压缩的日志；compact 为真时顺便把过长或中断的日志合并成快照
+    private static Map<String, List<TranslationArea>> loadGroup(Path groupPath, boolean compact) throws IOException {
         Path translationFile = groupPath.resolve(TRANSLATION_FILE);
-        
+        Path compactingFile = groupPath.resolve(JOURNAL_COMPACTING_FILE);
+        Path journalFile = groupPath.resolve(JOURNAL_FILE);
+        if (!Files.exists(translationFile) && !Files.exists(compactingFile) && !Files.exists(journalFile)) {
+            return null;
+        }
+        // 二进制快照与磁盘上的 JSON 和日志一致时直接解码，否则回退到 JSON
+        if (BINARY_SNAPSHOT) {
+            Map<String, List<TranslationArea>> decoded = BinarySnapshot.read(groupPath);
+            if (decoded != null) {
+                return decoded;
+            }
+        }
+
+        Map<String, List<TranslationArea>> groupTranslations = null;
+        if (Files.exists(translationFile)) {
+            String json = new String(Files.readAllBytes(translationFile), StandardCharsets.UTF_8);
+            groupTranslations = gson.fromJson(json,
+                new TypeToken<ConcurrentHashMap<String, List<TranslationArea>>>(){}.getType());
+        }
+        if (groupTranslations == null) {
+            groupTranslations = new ConcurrentHashMap<>();
+        }
+        Map<String, Long> versions = readVersions(groupPath);
+        groupTranslations.replaceAll((filename, areas) -> PackedPage.of(areas, versions.getOrDefault(filename, 0L)));
+
+        boolean replayed = replayJournal(compactingFile, groupTranslations);
+        replayed |= replayJournal(journalFile, groupTranslations);
+        // 上次压缩中断，或日志已超过阈值：加载时直接合并成新快照
+        if (compact && (Files.exists(compactingFile)
+                || (replayed && Files.exists(journalFile) && Files.size(journalFile) >= JOURNAL_COMPACT_BYTES))) {
+            writeSnapshot(groupPath, groupTranslations);
+            Files.deleteIfExists(compactingFile);
+            Files.deleteIfExists(journalFile);
+        }
+        return groupTranslations;
+    }
+
+    private static boolean replayJournal(Path journalFile, Map<String, List<TranslationArea>> groupTranslations) throws IOException {
+        if (!Files.exists(journalFile)) {
+            return false;
+        }
+        byte[] data = Files.readAllBytes(journalFile);
+        int start = 0;
+        int validLength = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            String line = new String(data, start, i - start, StandardCharsets.UTF_8);
+            start = i + 1;
+            if (line.trim().isEmpty()) {
+                validLength = start;
+                continue;
+            }
+            try {
+                JournalRecord record = gson.fromJson(line, JournalRecord.class);
+                if (record != null && record.file != null) {
+                    List<TranslationArea> current = groupTranslations.get(record.file);
+                    // 压缩时快照可能已包含之后才写入日志的保存，版本号不比当前新的记录跳过；
+                    // 旧日志的记录没有版本号，只重放到同样没有版本号的页面上
+                    if (record.version > pageVersion(current) || pageVersion(current) == 0) {
+                        groupTranslations.put(record.file, record.ops != null
+                            ? PackedPage.of(current != null ? current : Collections.emptyList(), pageVersion(current))
+                                .apply(record.ops, record.version, false)
+                            : PackedPage.of(record.areas != null ? record.areas : new ArrayList<>(), record.version));
+                    }
+                }
+                validLength = start;
+            } catch (JsonSyntaxException e) {
+                System.err.println("翻译日志记录损坏，已忽略后续内容: " + journalFile);
+                break;
+            } catch (IllegalArgumentException e) {
+                System.err.println("翻译日志记录无效，已跳过: " + journalFile + ": " + e.getMessage());
+                validLength = start;
+            }
+        }
+        // 截掉崩溃时写了一半的末尾记录，避免后续追加接在残行后面
+        if (validLength < data.length) {
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        return validLength > 0;
+    }
+
+    private static GroupJournal journal(String group) {
+        return journals.computeIfAbsent(group, g -> new GroupJournal(g, Paths.get(UPLOAD_DIR, g)));
+    }
+
+    private static void closeJournal(String group) {
+        GroupJournal journal = journals.remove(group);
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private static void saveTranslationsToFile(String group) throws IOException {
+        Path groupPath = Paths.get(UPLOAD_DIR, group);
+        if (!Files.exists(groupPath)) {
+            Files.createDirectories(groupPath);
+        }
+        Map<String, List<TranslationArea>> groupTranslations = groupSnapshot(group);
+        writeSnapshot(groupPath, groupTranslations != null ? groupTranslations : Collections.emptyMap());
+    }
+
+    // 在读锁下复制分组的页面映射；页面本身不可变，复制后可以在锁外慢慢读取
+    private static Map<String, List<TranslationArea>> groupSnapshot(String group) throws IOException {
+        Map<String, List<TranslationArea>> groupTranslations = groupCache.get(group);
+        if (groupTranslations == null) {
+            return null;
+        }
+        ReentrantReadWriteLock lock = groupLocks.data(group);
+        lock.readLock().lock();
         try {
-            if (!Files.exists(groupPath)) {
-                Files.createDirectories(groupPath);
+            return new LinkedHashMap<>(groupTranslations);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 在读锁下取一页标注，没有时返回空列表
+    private static List<TranslationArea> pageOf(String group, String filename) throws IOException {
+        Map<String, List<TranslationArea>> groupTranslations = groupCache.get(group);
+        if (groupTranslations == null) {
+            return new ArrayList<>();
+        }
+        ReentrantReadWriteLock lock = groupLocks.data(group);
+        lock.readLock().lock();
+        try {
+            return groupTranslations.getOrDefault(filename, new ArrayList<>());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 导出全部时使用：已加载的分组直接复制，未加载的只临时读盘，不挤占缓存
+    private static Map<String, List<TranslationArea>> readGroup(String group) throws IOException {
+        ReentrantReadWriteLock lock = groupLocks.data(group);
+        lock.readLock().lock();
+        try {
+            Map<String, List<TranslationArea>> groupTranslations = translations.get(group);
+            if (groupTranslations != null) {
+                return new LinkedHashMap<>(groupTranslations);
+            }
+            return loadGroup(Paths.get(UPLOAD_DIR, group), false);
+        } catch (JsonSyntaxException e) {
+            throw new IOException("加载分组翻译失败: " + group + ": " + e.getMessage(), e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 粗略估算一页标注占用的堆内存，用于缓存预算
+    private static long estimateBytes(List<TranslationArea> areas) {
+        if (areas instanceof PackedPage) {
+            return ((PackedPage) areas).footprint();
+        }
+        long bytes = 64;
+        for (TranslationArea area : areas) {
+            bytes += 40 + stringBytes(area.original) + stringBytes(area.translation);
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String value) {
+        return value == null ? 0 : 56 + 2L * value.length();
+    }
+
+    // 页面版本写在旁边的 translations.versions.json 里，translations.json 保持原来的格式。
+    // 快照先写、版本文件后写：中途崩溃时版本文件只会比快照旧，加载时日志里版本更新的记录会再重放一遍，
+    // 重放是幂等的。反过来先写版本文件的话，旧内容会带上新版本号，日志里的修改都会被当成已包含而跳过
+    private static void writeSnapshot(Path groupPath, Map<String, List<TranslationArea>> groupTranslations) throws IOException {
+        Map<String, Long> versions = new TreeMap<>();
+        groupTranslations.forEach((filename, areas) -> {
+            if (pageVersion(areas) > 0) {
+                versions.put(filename, pageVersion(areas));
+            }
+        });
+        byte[] json = gson.toJson(groupTranslations).getBytes(StandardCharsets.UTF_8);
+        writeAtomically(groupPath.resolve(TRANSLATION_FILE), json);
+        writeAtomically(groupPath.resolve(VERSIONS_FILE), gson.toJson(versions).getBytes(StandardCharsets.UTF_8));
+        metrics.translationFileBytes.add(json.length);
+        metrics.translationFileWrites.increment();
+    }
+
+    private static Map<String, Long> readVersions(Path groupPath) throws IOException {
+        Path versionsFile = groupPath.resolve(VERSIONS_FILE);
+        if (!Files.exists(versionsFile)) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> versions = gson.fromJson(new String(Files.readAllBytes(versionsFile), StandardCharsets.UTF_8),
+            new TypeToken<Map<String, Long>>(){}.getType());
+        return versions != null ? versions : Collections.emptyMap();
+    }
+
+    static long pageVersion(List<TranslationArea> areas) {
+        return areas instanceof PackedPage ? ((PackedPage) areas).version : 0;
+    }
+
+    // 先写临时文件并落盘，再原子替换，避免崩溃留下空文件或半截文件
+    private static void writeAtomically(Path file, byte[] json) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(json);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // 把合并后的记录写入存储：journal 模式只追加这些记录，snapshot 模式整组重写
+    private static void writeGroup(String group, Collection<JournalRecord> records) throws IOException {
+        if ("snapshot".equals(PERSISTENCE_MODE)) {
+            saveTranslationsToFile(group);
+        } else {
+            journal(group).append(records, SAVE_ACK_AFTER_FSYNC);
+        }
+    }
+
+    // 全部分组名，来自目录索引
+    private static List<String> listGroups() throws IOException {
+        return listingIndex.groups();
+    }
+
+    // 扫描分组目录下还没收进图片存储的文件，页面请使用 listingIndex.files
+    private static List<String> listGroupFiles(Path groupPath) throws IOException {
+        List<String> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(groupPath)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (Files.isRegularFile(file) && !isTranslationDataFile(name) && !name.startsWith(".")) {
+                    files.add(file.getFileName().toString());
+                }
             }
-            String json = gson.toJson(translations.get(group));
-            Files.write(translationFile, json.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (IOException e) {
-            System.err.println("保存翻译数据失败: " + e.getMessage());
         }
+        return files;
+    }
+
+    // translations.json 及其日志、版本文件、临时文件不属于图片列表
+    private static boolean isTranslationDataFile(String filename) {
+        return filename.equals(TRANSLATION_FILE) || filename.startsWith(JOURNAL_FILE) || filename.equals(TRANSLATION_FILE + ".tmp")
+            || filename.startsWith(VERSIONS_FILE);
     }
 
     private static void homeRoute() {
         Spark.get("/", (req, res) -> {
+            // 首页内容只取决于分组列表和更新日志，没有变化时直接返回 304
+            if (notModified(req, res, listingIndex.etag())) {
+                return "";
+            }
+
             StringBuilder html = new StringBuilder()
                 .append("<html><head><title>漫画翻译工具</title>")
                 .append("<style>")
@@ -107,22 +4201,21 @@ public class ComicTranslator {
                 .append(".group-list { background: #f8f9fa; padding: 20px; border-radius: 5px; }</style></head>")
                 .append("<body><h1>漫画翻译工具</h1><div class='group-list'><h2>分组列表：</h2>");
 
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(UPLOAD_DIR))) {
-                for (Path path : stream) {
-                    if (Files.isDirectory(path)) {
-                        String groupName = path.getFileName().toString();
-                        html.append("<div style='margin:10px; padding:10px; background:#fff;'>")
-                            .append("<a href='/group/").append(groupName).append("'>").append(groupName).append("</a>")
-                            .append(" <a href='/export/").append(groupName).append("' style='color:green;'>导出本组翻译</a>")
-                            .append("<form method='post' action='/rename-group/").append(groupName).append("' style='display:inline; margin-left:10px;'>")
-                            .append("<input type='text' name='newName' placeholder='新名称' required style='padding:3px;'>")
-                            .append("<button type='submit' style='margin-left:5px; padding:3px 8px;'>重命名</button>")
-                            .append("</form>")
-                            .append("<form method='post' action='/delete-group/").append(groupName).append("' style='display:inline; margin-left:10px;'>")
-                            .append("<button type='submit' onclick=\"return confirm('确定删除分组 ").append(groupName).append(" 吗？')\" style='background:#ff4444; color:white; padding:3px 8px;'>删除</button>")
-                            .append("</form>")
-                            .append("</div>");
-                    }
+            try {
+                for (String groupName : listingIndex.groups()) {
+                    html.append("<div style='margin:10px; padding:10px; background:#fff;'>")
+                        .append("<a href='/group/").append(groupName).append("'>").append(groupName).append("</a>")
+                        .append(" <a href='/export/").append(groupName).append("' style='color:green;'>导出本组翻译</a>")
+                        .append(" <a href='/export-zip/").append(groupName).append("' onclick='return startJob(this.href)' style='color:green; margin-left:10px;'>打包下载</a>")
+                        .append(" <a href='/render-zip/").append(groupName).append("' onclick='return startJob(this.href)' style='color:green; margin-left:10px;'>嵌字打包</a>")
+                        .append("<form method='post' action='/rename-group/").append(groupName).append("' onsubmit='return startJob(this.action, this)' style='display:inline; margin-left:10px;'>")
+                        .append("<input type='text' name='newName' placeholder='新名称' required style='padding:3px;'>")
+                        .append("<button type='submit' style='margin-left:5px; padding:3px 8px;'>重命名</button>")
+                        .append("</form>")
+                        .append("<form method='post' action='/delete-group/").append(groupName).append("' onsubmit='return startJob(this.action)' style='display:inline; margin-left:10px;'>")
+                        .append("<button type='submit' onclick=\"return confirm('确定删除分组 ").append(groupName).append(" 吗？')\" style='background:#ff4444; color:white; padding:3px 8px;'>删除</button>")
+                        .append("</form>")
+                        .append("</div>");
                 }
             } catch (IOException e) {
                 e.printStackTrace();
@@ -132,12 +4225,51 @@ public class ComicTranslator {
                 .append("<form method='post' action='/new-group'>")
                 .append("<input type='text' name='groupname' placeholder='分组名称' required>")
                 .append("<button type='submit'>创建分组</button></form></div>")
-                .append("<a href='/export' style='display:block; margin-top:20px; color:green;'>导出全部翻译</a>")
+                .append("<a href='/export' onclick='return startJob(this.href)' style='display:block; margin-top:20px; color:green;'>导出全部翻译</a>")
+                .append("<div id='jobs' style='margin-top:10px;'></div>")
+                // 删除、重命名、打包在后台执行：提交后每秒查询一次进度，完成后刷新页面或开始下载
+                .append("<script>\n")
+                .append("const JOB_NAMES = { 'delete-group': '删除', 'rename-group': '重命名', 'export': '导出', 'export-zip': '打包', 'render-zip': '嵌字打包' };\n")
+                .append("function startJob(url, form) {\n")
+                .append("  runJob(url, form).catch(err => alert('操作失败: ' + err.message));\n")
+                .append("  return false;\n")
+                .append("}\n")
+                .append("async function runJob(url, form) {\n")
+                .append("  let r = await fetch(url, { method: 'POST', body: form ? new URLSearchParams(new FormData(form)) : null });\n")
+                .append("  if (r.status !== 202) throw new Error(await r.text());\n")
+                .append("  let job = await r.json();\n")
+                .append("  const line = document.createElement('div');\n")
+                .append("  const text = document.createElement('span');\n")
+                .append("  const cancel = document.createElement('button');\n")
+                .append("  cancel.textContent = '取消';\n")
+                .append("  cancel.style.marginLeft = '10px';\n")
+                .append("  cancel.onclick = () => fetch('/jobs/' + job.id, { method: 'DELETE' });\n")
+                .append("  line.append(text, cancel);\n")
+                .append("  document.getElementById('jobs').appendChild(line);\n")
+                .append("  const label = () => (job.group || '全部分组') + ' ' + JOB_NAMES[job.type] + ': ';\n")
+                .append("  while (job.state === 'queued' || job.state === 'running') {\n")
+                .append("    text.textContent = label() + (job.state === 'queued' ? '排队中' : job.cancelling ? '正在取消' : job.total ? job.done + ' / ' + job.total : '进行中');\n")
+                .append("    await new Promise(ok => setTimeout(ok, 1000));\n")
+                .append("    r = await fetch('/jobs/' + job.id);\n")
+                .append("    if (!r.ok) throw new Error(await r.text());\n")
+                .append("    job = await r.json();\n")
+                .append("  }\n")
+                .append("  cancel.remove();\n")
+                .append("  if (job.state !== 'done') {\n")
+                .append("    text.textContent = label() + (job.state === 'cancelled' ? '已取消' : '失败: ' + job.message);\n")
+                .append("  } else if (job.result) {\n")
+                .append("    text.textContent = label() + '完成';\n")
+                .append("    location = job.result;\n")
+                .append("  } else {\n")
+                .append("    location.reload();\n")
+                .append("  }\n")
+                .append("}\n")
+                .append("</script>")
                 .append("</div></body></html>");
             html.append("<div class='changelog'>")
                 .append("<h2>更新历程</h2>")
                 .append("<div class='changelog-content'>")
-                .append(loadChangelog())  // 加载日志内容
+                .append(listingIndex.changelog())  // 加载日志内容
                 .append("</div></div>");
 
             html.append("</div></body></html>");
@@ -149,40 +4281,175 @@ public class ComicTranslator {
     private static void groupRoute() {
         Spark.get("/group/:group", (req, res) -> {
             String group = req.params(":group");
-            Path groupPath = Paths.get(UPLOAD_DIR, group);
-            
-            if (!Files.exists(groupPath)) {
+            List<ListingIndex.FileEntry> files = listingIndex.files(group);
+
+            if (files == null) {
                 res.status(404);
                 return "分组不存在";
             }
+            String etag = listingIndex.etag();
+            if (notModified(req, res, etag)) {
+                return "";
+            }
+            // 进入分组页时预先加载翻译，后续打开编辑页直接命中缓存
+            groupCache.get(group);
+
+            // 排序：name 文件名（默认）、time 修改时间、size 大小；分页每页 GROUP_PAGE_SIZE 个
+            String sort = req.queryParamOrDefault("sort", "name");
+            boolean desc = "desc".equals(req.queryParams("order"));
+            List<ListingIndex.FileEntry> sorted = files;
+            if (!"name".equals(sort) || desc) {
+                Comparator<ListingIndex.FileEntry> comparator = "time".equals(sort)
+                    ? Comparator.comparingLong(entry -> entry.modified)
+                    : "size".equals(sort) ? Comparator.comparingLong(entry -> entry.size) : Comparator.comparing(entry -> entry.name);
+                sorted = new ArrayList<>(files);
+                sorted.sort(desc ? comparator.reversed() : comparator);
+            }
+            int pages = Math.max(1, (sorted.size() + GROUP_PAGE_SIZE - 1) / GROUP_PAGE_SIZE);
+            int page = 1;
+            try {
+                page = Math.min(pages, Math.max(1, Integer.parseInt(req.queryParamOrDefault("page", "1"))));
+            } catch (NumberFormatException e) {
+                // 非法页码按第一页处理
+            }
+            String query = "?sort=" + sort + (desc ? "&order=desc" : "");
 
             StringBuilder html = new StringBuilder()
                 .append("<html><head><title>分组: ").append(group).append("</title>")
-                .append("<style>.file-item { margin:10px; padding:10px; background:#fff; }</style></head>")
-                .append("<body><h1>分组: ").append(group).append("</h1><a href='/'>返回首页</a><div style='margin-top:20px;'>");
+                .append("<style>.file-item { margin:10px; padding:10px; background:#fff; } .pager a { margin-right:10px; }</style></head>")
+                .append("<body><h1>分组: ").append(group).append("</h1><a href='/'>返回首页</a>")
+                .append("<div class='pager' style='margin-top:10px;'>共 ").append(sorted.size()).append(" 个文件 排序: ")
+                .append("<a href='?sort=name'>文件名</a><a href='?sort=time&order=desc'>最近修改</a><a href='?sort=size&order=desc'>文件大小</a>")
+                .append("</div><div style='margin-top:20px;'>");
 
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(groupPath)) {
-                for (Path file : stream) {
-                    if (Files.isRegularFile(file) && !file.getFileName().toString().equals(TRANSLATION_FILE)) {
-                        String filename = file.getFileName().toString();
-                        html.append("<div class='file-item'>")
-                            .append("<a href='/edit/").append(group).append("/").append(filename).append("'>").append(filename).append("</a>")
-                            .append("</div>");
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+            for (ListingIndex.FileEntry file : sorted.subList((page - 1) * GROUP_PAGE_SIZE, Math.min(sorted.size(), page * GROUP_PAGE_SIZE))) {
+                html.append("<div class='file-item'>")
+                    .append("<a href='/edit/").append(group).append("/").append(file.name).append("'>")
+                    .append("<img src='/thumb/").append(group).append("/").append(file.name).append("' loading='lazy' style='max-width:120px; max-height:120px; vertical-align:middle; margin-right:10px;'>")
+                    .append(file.name).append("</a>")
+                    .append("</div>");
+            }
+
+            html.append("<div class='pager'>");
+            if (page > 1) {
+                html.append("<a href='").append(query).append("&page=").append(page - 1).append("'>上一页</a>");
             }
+            html.append("第 ").append(page).append(" / ").append(pages).append(" 页 ");
+            if (page < pages) {
+                html.append("<a href='").append(query).append("&page=").append(page + 1).append("'>下一页</a>");
+            }
+            html.append("</div>");
 
             html.append("<h3 style='margin-top:20px;'>上传文件到本组</h3>")
-                .append("<form method='post' action='/upload/").append(group).append("' enctype='multipart/form-data'>")
+                .append("<form id='upload-form' method='post' action='/upload/").append(group).append("' enctype='multipart/form-data'>")
                 .append("<input type='file' name='files' multiple accept='image/*' required>")
-                .append("<button type='submit'>上传文件</button></form></div></body></html>");
+                .append("<button type='submit'>上传文件</button></form><div id='upload-progress'></div></div>")
+                // 分块上传：每个文件 3 路并行，失败的块重试；会话 id 记在 localStorage，刷新页面后重新选择同一文件可以续传
+                .append("<script>\n")
+                .append("const uploadGroup = ").append(gson.toJson(group)).append(";\n")
+                .append("document.getElementById('upload-form').onsubmit = async e => {\n")
+                .append("  e.preventDefault();\n")
+                .append("  try {\n")
+                .append("    for (const file of e.target.files.files) await uploadFile(file);\n")
+                .append("    location.reload();\n")
+                .append("  } catch (err) {\n")
+                .append("    alert('上传失败: ' + err.message);\n")
+                .append("  }\n")
+                .append("};\n")
+                .append("async function uploadFile(file) {\n")
+                .append("  const key = 'upload:' + uploadGroup + '/' + file.name + ':' + file.size + ':' + file.lastModified;\n")
+                .append("  const line = document.createElement('div');\n")
+                .append("  document.getElementById('upload-progress').appendChild(line);\n")
+                .append("  let session = null;\n")
+                .append("  let r;\n")
+                .append("  if (localStorage.getItem(key)) {\n")
+                .append("    r = await fetch('/upload-session/' + localStorage.getItem(key));\n")
+                .append("    if (r.ok) session = await r.json();\n")
+                .append("  }\n")
+                .append("  if (!session) {\n")
+                .append("    r = await fetch('/upload-session/' + encodeURIComponent(uploadGroup) + '?filename=' + encodeURIComponent(file.name) + '&size=' + file.size, { method: 'POST' });\n")
+                .append("    if (!r.ok) throw new Error(await r.text());\n")
+                .append("    session = await r.json();\n")
+                .append("    localStorage.setItem(key, session.id);\n")
+                .append("  }\n")
+                .append("  const show = received => line.textContent = file.name + ': ' + (file.size ? Math.floor(received * 100 / file.size) : 100) + '%';\n")
+                .append("  show(session.received);\n")
+                .append("  const queue = session.missing.slice();\n")
+                .append("  const worker = async () => {\n")
+                .append("    while (queue.length) {\n")
+                .append("      const start = queue.shift() * session.chunkSize;\n")
+                .append("      const chunk = file.slice(start, Math.min(file.size, start + session.chunkSize));\n")
+                .append("      for (let attempt = 1; ; attempt++) {\n")
+                .append("        try {\n")
+                .append("          r = await fetch('/upload-session/' + session.id + '?offset=' + start, { method: 'PUT', body: chunk });\n")
+                .append("          if (!r.ok) throw new Error(await r.text());\n")
+                .append("          show((await r.json()).received);\n")
+                .append("          break;\n")
+                .append("        } catch (err) {\n")
+                .append("          if (attempt >= 3) throw err;\n")
+                .append("        }\n")
+                .append("      }\n")
+                .append("    }\n")
+                .append("  };\n")
+                .append("  await Promise.all([worker(), worker(), worker()]);\n")
+                .append("  r = await fetch('/upload-session/' + session.id + '/complete', { method: 'POST' });\n")
+                .append("  if (!r.ok) throw new Error(await r.text());\n")
+                .append("  localStorage.removeItem(key);\n")
+                .append("}\n")
+                .append("</script></body></html>");
 
             return html.toString();
         });
     }
 
+    // If-None-Match 与当前 ETag 一致时返回 304，否则带上 ETag 让浏览器下次协商
+    private static boolean notModified(spark.Request req, spark.Response res, String etag) {
+        res.header("ETag", etag);
+        res.header("Cache-Control", "no-cache");
+        if (etag.equals(req.headers("If-None-Match"))) {
+            res.status(304);
+            return true;
+        }
+        return false;
+    }
+
+    // 发送内存中的响应体：ETag 协商 304，客户端接受 gzip 且有压缩版本时发送压缩版本
+    private static Object sendBytes(spark.Request req, spark.Response res, byte[] body, byte[] gzipped,
+            String etag, String contentType, boolean immutable) throws IOException {
+        boolean notModified = notModified(req, res, etag);
+        if (immutable) {
+            res.raw().setHeader("Cache-Control", IMMUTABLE_CACHE);
+        }
+        if (gzipped != null) {
+            res.header("Vary", "Accept-Encoding");
+        }
+        if (notModified) {
+            return "";
+        }
+        res.type(contentType);
+        String acceptEncoding = req.headers("Accept-Encoding");
+        if (gzipped != null && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            res.header("Content-Encoding", "gzip");
+            body = gzipped;
+        }
+        res.raw().setContentLength(body.length);
+        res.raw().getOutputStream().write(body);
+        // 提交响应，Spark 看到 Content-Encoding 后不会再压缩一次
+        res.raw().flushBuffer();
+        return "";
+    }
+
+    // 压缩后不比原文小时返回 null
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 3 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.size() < bytes.length ? out.toByteArray() : null;
+    }
+
     private static void uploadRoute() {
         Spark.post("/upload/:group", (req, res) -> {
             String group = req.params(":group");
@@ -211,10 +4478,12 @@ public class ComicTranslator {
                         String filename = Paths.get(part.getSubmittedFileName()).getFileName().toString();
                         // 使用try-with-resources确保流关闭
                         try (InputStream in = part.getInputStream()) {
-                            Files.copy(in, groupPath.resolve(filename), StandardCopyOption.REPLACE_EXISTING);
+                            imagePipeline.enqueue(objectStore.put(group, filename, in).digest);
                         }
+                        metrics.uploadBytes.add(part.getSize());
                     }
                 }
+                listingIndex.invalidateGroup(group);
                 res.redirect("/group/" + group);
                 return null;
             } catch (Exception e) {
@@ -227,6 +4496,115 @@ public class ComicTranslator {
         });
     }
 
+    /**
+     * 分块续传：
+     * POST /upload-session/:group?filename=&size= 创建会话，返回 id 和分块大小；
+     * PUT /upload-session/:id?offset= 上传一个分块，可并行；
+     * GET /upload-session/:id 查询进度和缺少的分块；
+     * POST /upload-session/:id/complete 完成；DELETE /upload-session/:id 放弃。
+     */
+    private static void chunkedUploadRoutes() {
+        Spark.post("/upload-session/:group", (req, res) -> {
+            String group = req.params(":group");
+            String filename = req.queryParams("filename");
+            long size;
+            try {
+                size = Long.parseLong(req.queryParamOrDefault("size", ""));
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "缺少文件大小";
+            }
+            if (!Files.isDirectory(Paths.get(UPLOAD_DIR, group))) {
+                res.status(404);
+                return "分组不存在";
+            }
+            if (filename == null || filename.isEmpty() || filename.startsWith(".") || filename.contains("/")
+                    || filename.contains("\\") || isTranslationDataFile(filename)) {
+                res.status(400);
+                return "文件名无效";
+            }
+            if (size < 0 || size > MAX_FILE_SIZE) {
+                res.status(413);
+                return "文件大小超过限制";
+            }
+            res.type("application/json");
+            return gson.toJson(uploadSessions.create(group, filename, size).progress());
+        });
+
+        Spark.put("/upload-session/:id", (req, res) -> {
+            UploadSessions.Session session = uploadSessions.get(req.params(":id"));
+            if (session == null) {
+                res.status(404);
+                return "上传会话不存在";
+            }
+            try {
+                // 偏移只从地址栏取：queryParams 会把表单类型的请求体当作参数解析掉
+                uploadSessions.writeChunk(session, rawQueryLong(req, "offset"), req.raw().getInputStream());
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                return e.getMessage();
+            } catch (ClosedChannelException e) {
+                res.status(409);
+                return "上传会话已结束";
+            }
+            res.type("application/json");
+            return gson.toJson(session.progress());
+        });
+
+        Spark.get("/upload-session/:id", (req, res) -> {
+            UploadSessions.Session session = uploadSessions.get(req.params(":id"));
+            if (session == null) {
+                res.status(404);
+                return "上传会话不存在";
+            }
+            res.type("application/json");
+            return gson.toJson(session.progress());
+        });
+
+        Spark.post("/upload-session/:id/complete", (req, res) -> {
+            UploadSessions.Session session = uploadSessions.get(req.params(":id"));
+            if (session == null) {
+                res.status(404);
+                return "上传会话不存在";
+            }
+            ObjectStore.Entry entry;
+            try {
+                entry = uploadSessions.complete(session);
+            } catch (NoSuchFileException e) {
+                res.status(404);
+                return "分组不存在";
+            }
+            if (entry == null) {
+                res.status(409);
+                res.type("application/json");
+                return gson.toJson(session.progress());
+            }
+            imagePipeline.enqueue(entry.digest);
+            listingIndex.invalidateGroup(session.group);
+            return "上传完成";
+        });
+
+        Spark.delete("/upload-session/:id", (req, res) -> {
+            UploadSessions.Session session = uploadSessions.get(req.params(":id"));
+            if (session != null) {
+                uploadSessions.abort(session);
+            }
+            return "已取消";
+        });
+    }
+
+    private static long rawQueryLong(spark.Request req, String name) {
+        String query = req.queryString();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                if (pair.startsWith(name + "=")) {
+                    return Long.parseLong(pair.substring(name.length() + 1));
+                }
+            }
+        }
+        throw new IllegalArgumentException("缺少参数 " + name);
+    }
+
     private static void newGroupRoute() {
         Spark.post("/new-group", (req, res) -> {
             String groupName = req.queryParams("groupname");
@@ -240,6 +4618,7 @@ public class ComicTranslator {
 
                 Files.createDirectory(groupPath);
                 Files.createFile(groupPath.resolve(TRANSLATION_FILE));
+                listingIndex.invalidateGroups();
                 res.redirect("/");
                 return null;
             } catch (InvalidPathException e) {
@@ -254,35 +4633,48 @@ public class ComicTranslator {
         });
     }
 
+    // 删除、重命名在后台任务里执行，等正在进行的保存结束后再动手，请求不必一直挂着
     private static void deleteGroupRoute() {
         Spark.post("/delete-group/:group", (req, res) -> {
             String group = req.params(":group");
-            Path groupPath = Paths.get(UPLOAD_DIR, group);
-        
-            if (!Files.exists(groupPath)) {
+            if (!Files.exists(Paths.get(UPLOAD_DIR, group))) {
                 res.status(404);
                 return "分组不存在"; // 直接返回错误信息
             }
+            return startJob(req, res, "delete-group", group, job -> deleteGroup(group, job));
+        });
+    }
 
-            try {
-                // 递归删除目录
-                Files.walk(groupPath)
-                     .sorted(Comparator.reverseOrder())
-                     .forEach(path -> {
-                         try {
-                             Files.delete(path);
-                         } catch (IOException e) {
-                             throw new RuntimeException("删除失败: " + path, e);
-                         }
-                     });
-                translations.remove(group);
-                res.redirect("/");
-                return null; // 添加显式返回
-            } catch (Exception e) {
-                res.status(500);
-                return "删除分组失败: " + e.getMessage();
+    private static void deleteGroup(String group, Jobs.Job job) throws IOException {
+        Path groupPath = Paths.get(UPLOAD_DIR, group);
+        job.progress(0, 1);
+        GroupLocks.Held held = groupLocks.exclusive(group);
+        try {
+            if (!Files.exists(groupPath)) {
+                throw new IllegalStateException("分组不存在");
             }
-        });
+            job.uncancellable();
+            saveCoalescer.discard(group);
+            closeJournal(group);
+            // 图片在共享存储里，删除清单并释放引用；目录里只剩翻译数据文件
+            objectStore.dropGroup(group);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(groupPath)) {
+                for (Path file : stream) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(groupPath);
+            translations.remove(group);
+            groupCache.forget(group);
+            searchIndex.removeGroup(group);
+            translationMemory.removeGroup(group);
+            metrics.groupRemoved(group);
+            listingIndex.invalidateGroups();
+            listingIndex.invalidateGroup(group);
+        } finally {
+            held.close();
+        }
+        job.progress(1, 1);
     }
 
     private static void renameGroupRoute() {
@@ -295,193 +4687,186 @@ public class ComicTranslator {
                 return "新分组名称不能为空";
             }
 
-            Path oldPath = Paths.get(UPLOAD_DIR, oldGroup);
-            Path newPath = Paths.get(UPLOAD_DIR, newGroup);
-        
-            if (!Files.exists(oldPath)) {
+            Path newPath;
+            try {
+                newPath = Paths.get(UPLOAD_DIR, newGroup);
+            } catch (InvalidPathException e) {
+                res.status(400);
+                return "非法分组名称: " + e.getMessage();
+            }
+            if (!Files.exists(Paths.get(UPLOAD_DIR, oldGroup))) {
                 res.status(404);
                 return "原分组不存在";
             }
-        
             if (Files.exists(newPath)) {
                 res.status(400);
                 return "新分组名称已存在";
             }
+            return startJob(req, res, "rename-group", oldGroup, job -> renameGroup(oldGroup, newGroup, job));
+        });
+    }
 
-            try {
-                // 移动目录
-                Files.move(oldPath, newPath);
-                // 更新内存数据
-                Map<String, List<TranslationArea>> groupData = translations.remove(oldGroup);
-                if (groupData != null) {
-                    translations.put(newGroup, groupData);
-                    saveTranslationsToFile(newGroup);
-                }
-                res.redirect("/");
-                return null; // 添加显式返回
-            } catch (IOException e) {
-                res.status(500);
-                return "重命名失败: " + e.getMessage();
+    private static void renameGroup(String oldGroup, String newGroup, Jobs.Job job) throws IOException {
+        Path oldPath = Paths.get(UPLOAD_DIR, oldGroup);
+        Path newPath = Paths.get(UPLOAD_DIR, newGroup);
+        job.progress(0, 1);
+        GroupLocks.Held held = groupLocks.exclusive(oldGroup, newGroup);
+        try {
+            // 排队期间分组可能已被删除、改名
+            if (!Files.exists(oldPath)) {
+                throw new IllegalStateException("原分组不存在");
+            }
+            if (Files.exists(newPath)) {
+                throw new IllegalStateException("新分组名称已存在");
+            }
+            job.uncancellable();
+            // 先写出待保存数据，持有 io 锁期间不会再有新的写入
+            if (!saveCoalescer.flush(oldGroup)) {
+                throw new IOException("待保存的翻译写入失败");
+            }
+            closeJournal(oldGroup);
+            // 目录里只有清单、快照和日志，改名即可，图片留在共享存储里不动
+            Files.move(oldPath, newPath);
+            objectStore.renamed(oldGroup, newGroup);
+            searchIndex.renameGroup(oldGroup, newGroup);
+            translationMemory.renameGroup(oldGroup, newGroup);
+            metrics.groupRemoved(oldGroup);
+            // 更新内存数据
+            Map<String, List<TranslationArea>> groupData = translations.remove(oldGroup);
+            if (groupData != null) {
+                translations.put(newGroup, groupData);
+                groupCache.renamed(oldGroup, newGroup);
+            }
+            listingIndex.invalidateGroups();
+            listingIndex.invalidateGroup(oldGroup);
+            listingIndex.invalidateGroup(newGroup);
+        } finally {
+            held.close();
+        }
+        job.progress(1, 1);
+    }
+
+    /**
+     * 提交后台任务。脚本发起的请求返回 202 和任务状态，页面据此轮询；
+     * 表单直接提交时回到首页，任务在后台继续。
+     */
+    private static Object startJob(spark.Request req, spark.Response res, String type, String group, Jobs.Work work) {
+        Jobs.Job job;
+        try {
+            job = jobs.submit(type, group, work);
+        } catch (RejectedExecutionException e) {
+            res.status(503);
+            return "后台任务太多，请稍后再试";
+        }
+        String accept = req.headers("Accept");
+        if (accept != null && accept.contains("text/html")) {
+            res.redirect("/");
+            return null;
+        }
+        res.status(202);
+        res.header("Location", "/jobs/" + job.id);
+        res.type("application/json");
+        return gson.toJson(job.status());
+    }
+
+    // 过滤器对所有请求生效；afterAfter 在路由抛出异常后也会执行
+    private static void metricsFilters() {
+        Spark.before((req, res) -> metrics.start(req));
+        Spark.afterAfter((req, res) -> metrics.finish(req, res));
+    }
+
+    private static void metricsRoute() {
+        Spark.get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4; charset=utf-8");
+            return metrics.render();
+        });
+    }
+
+    private static void jobRoutes() {
+        Spark.get("/jobs/:id", (req, res) -> {
+            Jobs.Job job = jobs.get(req.params(":id"));
+            if (job == null) {
+                res.status(404);
+                return "任务不存在";
+            }
+            res.type("application/json");
+            return gson.toJson(job.status());
+        });
+
+        Spark.get("/jobs/:id/result", (req, res) -> {
+            Jobs.Job job = jobs.get(req.params(":id"));
+            if (job == null) {
+                res.status(404);
+                return "任务不存在";
+            }
+            Path result = job.resultFile();
+            if (result == null) {
+                res.status(409);
+                return "任务还没有完成或没有可下载的结果";
+            }
+            res.header("Content-Disposition", "attachment; filename*=UTF-8''"
+                + URLEncoder.encode(job.resultName(), "UTF-8").replace("+", "%20"));
+            return serveFile(req, res, result, "\"" + job.id + "\"", job.resultType(), false);
+        });
+
+        Spark.delete("/jobs/:id", (req, res) -> {
+            Jobs.Job job = jobs.get(req.params(":id"));
+            if (job == null) {
+                res.status(404);
+                return "任务不存在";
             }
+            if (!jobs.cancel(job)) {
+                res.status(409);
+                return "任务已经结束，或删除、重命名已经开始，不能取消";
+            }
+            res.type("application/json");
+            return gson.toJson(job.status());
         });
     }
 
+    // 编辑页外壳是静态文件，分组和文件名由脚本从地址栏取得，数据来自 /api/areas
     private static void editRoute() {
         Spark.get("/edit/:group/:filename", (req, res) -> {
+            Assets.Asset shell = assets.get("editor.html");
+            return sendBytes(req, res, shell.bytes, shell.gzipped, shell.etag, shell.type, false);
+        });
+    }
+
+    // 编辑页数据：{"version": 页面版本, "width": 原图宽度, "areas": [...]}，内容摘要作 ETag
+    private static void areasApiRoute() {
+        Spark.get("/api/areas/:group/:filename", (req, res) -> {
             String group = req.params(":group");
             String filename = req.params(":filename");
-            
-            List<TranslationArea> areas = translations
-                .getOrDefault(group, new ConcurrentHashMap<>())
-                .getOrDefault(filename, new ArrayList<>());
+            List<TranslationArea> areas = pageOf(group, filename);
+            // 画布显示预览图，标注坐标仍按原图像素保存，前端按两者宽度之比缩放
+            Path original = objectStore.resolve(group, filename);
+            int[] originalSize = original != null ? ImagePipeline.imageSize(original) : null;
+            byte[] json = areasJson(areas, originalSize != null ? originalSize[0] : 0);
+            String etag = "\"" + ObjectStore.hex(ObjectStore.sha256().digest(json)).substring(0, 32) + "\"";
+            return sendBytes(req, res, json, json.length >= GZIP_MIN_BYTES ? gzip(json) : null, etag,
+                "application/json; charset=utf-8", false);
+        });
+    }
 
-            String jsonData = gson.toJson(areas);
-            
-            return "<!DOCTYPE html><html><head>" 
-                + "<script src='https://cdnjs.cloudflare.com/ajax/libs/fabric.js/4.5.0/fabric.min.js'></script>"
-                + "<style>"
-                + "#canvas-container { position: relative; margin: 20px 0; }"
-                + "#main-canvas { border: 2px solid #ddd; }"
-                + ".toolbar { margin: 10px 0; }"
-                + "button { padding: 8px 15px; margin-right: 10px; cursor: pointer; }"
-                + ".translation-box { margin: 10px 0; padding: 10px; border: 1px solid #ddd; }"
-                + "</style></head><body>"
-                + "<h1>编辑翻译：" + filename + "</h1>"
-               + "<div class='toolbar'>"
-                + "<button onclick='enableRect()'>新建标注区域</button>"
-                + "<button onclick='saveTranslations()'>保存全部翻译</button>"
-                + "<a href='/group/" + group + "' style='padding: 8px 15px; background: #6c757d; color: white; text-decoration: none;'>返回分组</a>"
-                + "</div>"
-                + "<div id='canvas-container'>"
-                + "<canvas id='main-canvas'></canvas>"
-                + "</div>"
-                + "<script>"
-                + "let canvas = new fabric.Canvas('main-canvas', { selection: false });"
-                + "let currentRect = null;"
-                + "let startX = 0, startY = 0;"
-            
-                + "let img = new Image();\n"
-                + "img.src = '/" + group + "/" + filename + "';\n"
-                + "img.onload = () => {\n"
-                + "  canvas.setWidth(img.width);\n"
-                + "  canvas.setHeight(img.height);\n"
-                + "  canvas.setBackgroundImage(img.src, canvas.renderAll.bind(canvas));\n"
-                + "};\n"
-
-                + "let areas = " + jsonData + ";\n"
-                + "areas.forEach((area, index) => {\n"
-                + "  let rectId = 'rect_' + Date.now() + Math.random().toString(36).substr(2, 9);\n"
-                + "  let rect = new fabric.Rect({\n"
-                + "    id: rectId,\n"
-                + "    left: area.x,\n"
-                + "    top: area.y,\n"
-                + "    width: area.width,\n"
-                + "    height: area.height,\n"
-                + "    fill: 'rgba(255,0,0,0.3)',\n"
-                + "    stroke: 'red',\n"
-                + "    strokeWidth: 2,\n"
-                + "    hasControls: true,\n"
-                + "    data: area\n"
-                + "  });\n"
-                + "  canvas.add(rect);\n"
-                + "  showTranslationBox(rect, area);\n"
-                + "});\n"
-
-                + "function enableRect() {\n"
-                + "  canvas.isDrawingMode = false;\n"
-                + "  canvas.on('mouse:down', startRect);\n"
-                + "  canvas.on('mouse:move', drawRect);\n"
-                + "  canvas.on('mouse:up', finishRect);\n"
-                + "}\n"
-
-                + "function startRect(e) {\n"
-                + "  startX = e.pointer.x;\n"
-                + "  startY = e.pointer.y;\n"
-                + "  let rectId = 'rect_' + Date.now() + Math.random().toString(36).substr(2, 9);\n"
-                + "  currentRect = new fabric.Rect({\n"
-                + "    id: rectId,\n"
-                + "    left: startX,\n"
-                + "    top: startY,\n"
-                + "    width: 0,\n"
-                + "    height: 0,\n"
-                + "    fill: 'rgba(0,255,0,0.3)',\n"
-                + "    stroke: 'green',\n"
-                + "    strokeWidth: 2,\n"
-                + "    selectable: true\n"
-                + "  });\n"
-                + "  canvas.add(currentRect);\n"
-                + "}\n"
-
-                + "function drawRect(e) {\n"
-                + "  if (!currentRect) return;\n"
-                + "  let x = e.pointer.x;\n"
-                + "  let y = e.pointer.y;\n"
-                + "  currentRect.set({\n"
-                + "    width: x - startX,\n"
-                + "    height: y - startY\n"
-                + "  });\n"
-                + "  canvas.renderAll();\n"
-                + "}\n"
-
-                + "function finishRect() {\n"
-                + "  currentRect.setCoords();\n"
-                + "  showTranslationBox(currentRect, { original: '', translation: '' });\n" // 新增初始化空数据
-                + "  currentRect = null;\n"
-                + "}\n"
-
-                + "function showTranslationBox(rect, areaData) {\n"
-                + "  let box = document.createElement('div');\n"
-                + "  box.className = 'translation-box';\n"
-                + "  box.dataset.rectId = rect.id;\n"
-                + "  box.innerHTML = `\n"
-                + "    <h3>翻译区域 #${canvas.getObjects().length}</h3>\n"
-                + "    <input type='text' placeholder='原文' \n"
-                + "           value='${areaData?.original || ''}'\n"
-                + "           style='width: 200px; margin-right: 10px;'>\n"
-                + "    <input type='text' placeholder='翻译内容' \n"
-                + "           value='${areaData?.translation || ''}'\n"
-                + "           style='width: 300px;'>\n"
-                + "    <button onclick='deleteTranslationBox(this)'>删除</button>\n"
-                + "  `;\n"
-                + "  document.body.appendChild(box);\n"
-                + "}\n"
-
-                + "function deleteTranslationBox(button) {\n"
-                + "  let box = button.parentElement;\n"
-                + "  let rectId = box.dataset.rectId;\n"
-                + "  let rect = canvas.getObjects().find(obj => obj.id === rectId);\n"
-                + "  if (rect) canvas.remove(rect);\n"
-                + "  box.remove();\n"
-                + "}\n"
-
-                + "function saveTranslations() {\n"
-                + "  let areas = [];\n"
-                + "  canvas.getObjects().forEach((obj) => {\n"
-                + "    if (obj instanceof fabric.Rect) {\n"
-                + "      let box = document.querySelector(`.translation-box[data-rect-id=\"${obj.id}\"]`);\n"
-                + "      if (!box) return;\n"
-                + "      let inputs = box.getElementsByTagName('input');\n"
-                + "      areas.push({\n"
-                + "        x: Math.round(obj.left),\n"
-                + "        y: Math.round(obj.top),\n"
-                + "        width: Math.round(obj.width),\n"
-                + "        height: Math.round(obj.height),\n"
-                + "        original: inputs[0].value,\n"
-                + "        translation: inputs[1].value\n"
-                + "      });\n"
-                + "    }\n"
-                + "  });\n"
-            
-                + "  fetch('/save/" + group + "/" + filename + "', {\n"
-                + "    method: 'POST',\n"
-                + "    headers: { 'Content-Type': 'application/json' },\n"
-                + "    body: JSON.stringify(areas)\n"
-                + "  }).then(response => {\n"
-                + "    if (response.ok) alert('保存成功！');\n"
-                + "    else alert('保存失败！');\n"
-                + "  });\n"
-                + "}\n"
-                + "</script></body></html>";
+    // 编辑页数据：页面版本、原图宽度和标注
+    private static byte[] areasJson(List<TranslationArea> areas, int width) {
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("version", pageVersion(areas));
+        page.put("width", width);
+        page.put("areas", areas);
+        return gson.toJson(page).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 编辑页静态文件；带上与内容一致的 ?v= 时可以永久缓存
+    private static void assetRoute() {
+        Spark.get("/assets/:name", (req, res) -> {
+            Assets.Asset asset = assets.get(req.params(":name"));
+            if (asset == null) {
+                res.status(404);
+                return "文件不存在";
+            }
+            return sendBytes(req, res, asset.bytes, asset.gzipped, asset.etag, asset.type,
+                asset.version().equals(req.queryParams("v")));
         });
     }
 
@@ -491,12 +4876,22 @@ public class ComicTranslator {
             String filename = req.params(":filename");
             
             try {
-                TranslationArea[] areas = gson.fromJson(req.body(), TranslationArea[].class);
-                translations
-                    .computeIfAbsent(group, k -> new ConcurrentHashMap<>())
-                    .put(filename, new ArrayList<>(Arrays.asList(areas)));
-                
-                saveTranslationsToFile(group);
+                List<TranslationArea> areas = new ArrayList<>(Arrays.asList(gson.fromJson(req.body(), TranslationArea[].class)));
+                try {
+                    PackedPage.assignIds(areas);
+                } catch (IllegalArgumentException e) {
+                    res.status(400);
+                    return e.getMessage();
+                }
+                CompletableFuture<Long> written = saveCoalescer.submit(group, filename, areas);
+                if (SAVE_ACK_AFTER_FSYNC) {
+                    try {
+                        written.get(SAVE_ACK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        res.status(202);
+                        return "已保存，写入磁盘暂时失败，正在重试";
+                    }
+                }
                 res.status(200);
                 return "OK";
             } catch (Exception e) {
@@ -504,52 +4899,548 @@ public class ComicTranslator {
                 return "保存失败: " + e.getMessage();
             }
         });
+
+        // 增量保存：{"base": 版本, "ops": [{"op": "add|update", "area": {...}}, {"op": "delete", "id": "..."}]}
+        // 成功返回新版本；base 不是当前版本时返回 409 和当前页面，由编辑器合并后重试
+        Spark.patch("/save/:group/:filename", (req, res) -> {
+            String group = req.params(":group");
+            String filename = req.params(":filename");
+            res.type("application/json");
+            PagePatch patch;
+            try {
+                patch = gson.fromJson(req.body(), PagePatch.class);
+            } catch (JsonSyntaxException e) {
+                res.status(400);
+                return gson.toJson(Collections.singletonMap("error", "请求格式错误: " + e.getMessage()));
+            }
+            if (patch == null || patch.ops == null) {
+                res.status(400);
+                return gson.toJson(Collections.singletonMap("error", "缺少 ops"));
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            try {
+                CompletableFuture<Long> written = saveCoalescer.patch(group, filename, patch);
+                result.put("version", SAVE_ACK_AFTER_FSYNC ? written.get(SAVE_ACK_TIMEOUT_MS, TimeUnit.MILLISECONDS) : written.getNow(patch.base + 1));
+            } catch (TimeoutException e) {
+                // 页面已提交，只是还没写进磁盘：返回新版本，编辑器照常继续，写入由服务端重试
+                res.status(202);
+                result.put("version", patch.base + 1);
+                result.put("pending", true);
+            } catch (VersionConflictException e) {
+                res.status(409);
+                result.put("version", e.current.version);
+                result.put("areas", e.current);
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                result.put("error", e.getMessage());
+            } catch (Exception e) {
+                res.status(500);
+                result.put("error", "保存失败: " + e.getMessage());
+            }
+            return gson.toJson(result);
+        });
+    }
+
+    // 协作编辑长轮询：/collab/:group/:filename?since=编辑器当前版本
+    private static void collabRoute() {
+        Spark.get("/collab/:group/:filename", (req, res) -> {
+            long since;
+            try {
+                since = Long.parseLong(req.queryParamOrDefault("since", "0"));
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "since 必须是整数";
+            }
+            res.type("application/json");
+            res.header("Cache-Control", "no-store");
+            String body = collabHub.poll(req.params(":group"), req.params(":filename"), since, req.raw(), res.raw());
+            return body != null ? body : "";
+        });
+    }
+
+    // 缩略图和编辑预览图；还没生成好时排队生成，先重定向到原图
+    private static void derivedImageRoutes() {
+        for (String kind : new String[] { "thumb", "preview" }) {
+            Spark.get("/" + kind + "/:group/:filename", (req, res) -> {
+                String group = req.params(":group");
+                String filename = req.params(":filename");
+                ObjectStore.Entry entry = objectStore.entry(group, filename);
+                if (entry == null) {
+                    res.status(404);
+                    return "文件不存在";
+                }
+                Path derived = ObjectStore.derivative(entry.digest, kind);
+                if (!Files.exists(derived)) {
+                    imagePipeline.enqueue(entry.digest);
+                    res.redirect(imageUrl(group, filename, entry));
+                    return null;
+                }
+                return serveFile(req, res, derived, "\"" + entry.digest.substring(0, 32) + "-" + kind + "\"", "image/jpeg", false);
+            });
+        }
+    }
+
+    // 原图，ETag 就是内容摘要。地址带上摘要作为版本号，内容变了地址就变，浏览器可以放心长期缓存
+    private static void imageRoute() {
+        Spark.get("/image/:group/:filename", (req, res) -> {
+            String group = req.params(":group");
+            String filename = req.params(":filename");
+            ObjectStore.Entry entry = objectStore.entry(group, filename);
+            if (entry == null) {
+                res.status(404);
+                return "文件不存在";
+            }
+            String contentType = URLConnection.guessContentTypeFromName(filename);
+            boolean versioned = imageVersion(entry).equals(req.queryParams("v"));
+            return serveFile(req, res, ObjectStore.objectPath(entry.digest), "\"" + entry.digest.substring(0, 32) + "\"",
+                contentType != null ? contentType : "application/octet-stream", versioned);
+        });
+    }
+
+    // 旧地址 /分组/文件名（原先由静态文件目录提供）转到图片路由；两段路径会匹配很多地址，必须最后注册
+    private static void legacyImageRoute() {
+        Spark.get("/:group/:filename", (req, res) -> {
+            ObjectStore.Entry entry = objectStore.entry(req.params(":group"), req.params(":filename"));
+            if (entry == null) {
+                res.status(404);
+                return "文件不存在";
+            }
+            res.redirect(imageUrl(req.params(":group"), req.params(":filename"), entry));
+            return null;
+        });
+    }
+
+    static String imageUrl(String group, String filename, ObjectStore.Entry entry) throws IOException {
+        return "/image/" + encodePath(group) + "/" + encodePath(filename) + "?v=" + imageVersion(entry);
+    }
+
+    private static String imageVersion(ObjectStore.Entry entry) {
+        return entry.digest.substring(0, 16);
+    }
+
+    /**
+     * 发送文件：内容 ETag 协商 304，支持单个 Range 区间（多区间按整个文件返回），
+     * 内容用 FileChannel.transferTo 写出。
+     */
+    private static Object serveFile(spark.Request req, spark.Response res, Path file, String etag, String contentType, boolean immutable) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        boolean notModified = notModified(req, res, etag);
+        if (immutable) {
+            res.raw().setHeader("Cache-Control", IMMUTABLE_CACHE);
+        }
+        if (notModified) {
+            return "";
+        }
+        res.header("Accept-Ranges", "bytes");
+
+        long size = attrs.size();
+        long start = 0;
+        long length = size;
+        String range = req.headers("Range");
+        String ifRange = req.headers("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] parsed = parseRange(range, size);
+            if (parsed == null) {
+                res.status(416);
+                res.header("Content-Range", "bytes */" + size);
+                return "";
+            }
+            if (parsed.length == 2) {
+                start = parsed[0];
+                length = parsed[1] - parsed[0] + 1;
+                res.status(206);
+                res.header("Content-Range", "bytes " + parsed[0] + "-" + parsed[1] + "/" + size);
+            }
+        }
+
+        res.type(contentType);
+        res.raw().setContentLengthLong(length);
+        OutputStream out = res.raw().getOutputStream();
+        sendFile(out, file, start, length);
+        out.close();
+        return "";
+    }
+
+    /**
+     * 把文件的 [start, start + length) 写到响应。不映射到内存：映射要等 GC 才解除，
+     * Windows 上映射着的文件不能删除也不能替换，删分组、换图片、清理渲染结果都会失败。
+     */
+    static void sendFile(OutputStream out, Path file, long start, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            for (long sent = 0; sent < length; ) {
+                long n = channel.transferTo(start + sent, length - sent, target);
+                if (n <= 0) {
+                    // 文件在发送中途被截短
+                    throw new EOFException(file + " 在发送时变短了");
+                }
+                sent += n;
+            }
+        }
+    }
+
+    /**
+     * 解析 Range 头，返回 [起, 止]（含止）；多个区间或无法识别的写法返回空数组表示忽略 Range，
+     * 区间落在文件之外返回 null（416）。
+     */
+    static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? size - 1 : Math.min(size - 1, Long.parseLong(spec.substring(dash + 1)));
+            }
+            if (start >= size || start > end) {
+                return null;
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static String encodePath(String segment) throws UnsupportedEncodingException {
+        return URLEncoder.encode(segment, "UTF-8").replace("+", "%20");
+    }
+
+    // 全文搜索：/search?q=词&group=分组（可选）&page=1&size=20，返回 JSON
+    private static void searchRoute() {
+        Spark.get("/search", (req, res) -> {
+            String query = req.queryParams("q");
+            if (query == null || query.trim().isEmpty()) {
+                res.status(400);
+                return "缺少搜索词";
+            }
+            int page;
+            int size;
+            try {
+                page = Math.max(1, Integer.parseInt(req.queryParamOrDefault("page", "1")));
+                size = Math.min(SEARCH_MAX_PAGE_SIZE, Math.max(1, Integer.parseInt(req.queryParamOrDefault("size", "20"))));
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "分页参数无效";
+            }
+            if (!textIndexAvailable(res)) {
+                return "搜索已关闭（-Dtext.index=off）";
+            }
+            res.type("application/json");
+            return gson.toJson(searchIndex.search(query, req.queryParams("group"), page, size));
+        });
+    }
+
+    // 翻译记忆：/tm/suggest?q=原文&k=5&min=0.5，返回相近原文的已有译法，JSON
+    private static void suggestRoute() {
+        Spark.get("/tm/suggest", (req, res) -> {
+            String query = req.queryParams("q");
+            if (query == null || query.trim().isEmpty()) {
+                res.status(400);
+                return "缺少原文";
+            }
+            int limit;
+            double minSimilarity;
+            try {
+                limit = Math.min(TM_MAX_SUGGESTIONS, Math.max(1, Integer.parseInt(req.queryParamOrDefault("k", "5"))));
+                minSimilarity = Double.parseDouble(req.queryParamOrDefault("min", "0.5"));
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "参数无效";
+            }
+            if (!textIndexAvailable(res)) {
+                return "翻译记忆已关闭（-Dtext.index=off）";
+            }
+            res.type("application/json");
+            return gson.toJson(translationMemory.suggest(query, limit, minSimilarity));
+        });
+    }
+
+    // 关闭时返回 503；lazy 模式下第一次用到时开始在后台建立
+    private static boolean textIndexAvailable(spark.Response res) {
+        if ("off".equals(TEXT_INDEX)) {
+            res.status(503);
+            return false;
+        }
+        buildTextIndexesInBackground();
+        return true;
+    }
+
+    // 嵌字结果：单页 /render/:group/:filename；整组 /render-zip/:group 并行渲染，按页面顺序边渲染边写入 ZIP
+    private static void renderRoutes() {
+        Spark.get("/render/:group/:filename", (req, res) -> {
+            String group = req.params(":group");
+            String filename = req.params(":filename");
+            for (int attempt = 0; ; attempt++) {
+                Path rendered = renderer.render(group, filename);
+                if (rendered == null) {
+                    res.status(404);
+                    return "文件不存在";
+                }
+                String name = rendered.getFileName().toString();
+                try {
+                    return serveFile(req, res, rendered, "\"" + name.substring(0, name.lastIndexOf('.')) + "\"",
+                        "jpg".equals(Renderer.format(filename)) ? "image/jpeg" : "image/png", false);
+                } catch (NoSuchFileException e) {
+                    // 同一页面刚保存过，新的渲染删掉了这个结果；serveFile 打开文件前还没有输出内容，重来一次
+                    if (attempt > 0) {
+                        throw e;
+                    }
+                }
+            }
+        });
+
+        Spark.get("/render-zip/:group", (req, res) -> {
+            String group = req.params(":group");
+            List<String> filenames = imageNames(group);
+            if (filenames == null) {
+                res.status(404);
+                return "分组不存在";
+            }
+            res.type("application/zip");
+            res.header("Content-Disposition", "attachment; filename*=UTF-8''"
+                + URLEncoder.encode(group + "-rendered.zip", "UTF-8").replace("+", "%20"));
+            writeRenderedZip(res.raw().getOutputStream(), group, filenames, Jobs.Job.inline("render-zip", group));
+            return "";
+        });
+
+        // 整组嵌字打包放到后台任务，完成后从 /jobs/编号/result 下载
+        Spark.post("/render-zip/:group", (req, res) -> {
+            String group = req.params(":group");
+            List<String> filenames = imageNames(group);
+            if (filenames == null) {
+                res.status(404);
+                return "分组不存在";
+            }
+            return startJob(req, res, "render-zip", group, job -> {
+                Path result = Jobs.resultPath(job, "zip");
+                job.result(result, group + "-rendered.zip", "application/zip");
+                try (OutputStream out = Files.newOutputStream(result)) {
+                    writeRenderedZip(out, group, filenames, job);
+                }
+            });
+        });
+    }
+
+    private static List<String> imageNames(String group) throws IOException {
+        List<ListingIndex.FileEntry> images = listingIndex.files(group);
+        if (images == null) {
+            return null;
+        }
+        List<String> filenames = new ArrayList<>();
+        for (ListingIndex.FileEntry image : images) {
+            filenames.add(image.name);
+        }
+        return filenames;
+    }
+
+    private static void writeRenderedZip(OutputStream out, String group, List<String> filenames, Jobs.Job job)
+            throws IOException, InterruptedException {
+        List<Future<Path>> results = renderer.renderAll(group, filenames);
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, EXPORT_BUFFER_SIZE), StandardCharsets.UTF_8)) {
+            zip.setLevel(Deflater.NO_COMPRESSION);
+            for (int i = 0; i < filenames.size(); i++) {
+                job.progress(i, filenames.size());
+                job.checkpoint();
+                Path rendered;
+                try {
+                    rendered = results.get(i).get();
+                } catch (ExecutionException e) {
+                    System.err.println("渲染失败: " + group + "/" + filenames.get(i) + ": " + e.getCause().getMessage());
+                    continue;
+                }
+                if (rendered == null) {
+                    continue;
+                }
+                InputStream in;
+                try {
+                    in = Files.newInputStream(rendered);
+                } catch (NoSuchFileException e) {
+                    // 渲染完到这里之间页面又保存过，结果已被新的渲染替换
+                    in = renderer.open(group, filenames.get(i));
+                    if (in == null) {
+                        continue;
+                    }
+                }
+                try (InputStream image = in) {
+                    zip.putNextEntry(new ZipEntry(filenames.get(i)));
+                    image.transferTo(zip);
+                    zip.closeEntry();
+                }
+            }
+            job.progress(filenames.size(), filenames.size());
+        } finally {
+            // 客户端中途断开或任务取消时不再渲染剩下的页面
+            results.forEach(result -> result.cancel(false));
+        }
+    }
+
+    private static void cacheStatsRoute() {
+        Spark.get("/cache-stats", (req, res) -> {
+            res.type("text/plain");
+            return groupCache.stats();
+        });
     }
 
     private static void exportRoutes() {
         Spark.get("/export", (req, res) -> {
-            StringBuilder output = new StringBuilder();
-            translations.forEach((group, files) -> {
-                output.append("=== 分组 [").append(group).append("] ===\n");
-                files.forEach((filename, areas) -> {
-                    output.append("--- 文件: ").append(filename).append(" ---\n");
-                    appendTranslations(output, areas);
-                });
-            });
-            return prepareExport(res, output);
+            try (Writer output = openExport(req, res)) {
+                exportAll(output, Jobs.Job.inline("export", null));
+            }
+            return "";
         });
 
+        // 全部分组的导出放到后台任务，完成后从 /jobs/编号/result 下载
+        Spark.post("/export", (req, res) -> startJob(req, res, "export", null, job -> {
+            Path result = Jobs.resultPath(job, "txt");
+            job.result(result, "translations.txt", "text/plain; charset=utf-8");
+            try (Writer output = Files.newBufferedWriter(result, StandardCharsets.UTF_8)) {
+                exportAll(output, job);
+            }
+        }));
+
         Spark.get("/export/:group", (req, res) -> {
             String group = req.params(":group");
-            if (!translations.containsKey(group)) {
+            Map<String, List<TranslationArea>> files = groupSnapshot(group);
+            if (files == null) {
+                res.status(404);
+                return "分组不存在";
+            }
+
+            try (Writer output = openExport(req, res)) {
+                appendGroup(output, group, files);
+            }
+            return "";
+        });
+
+        // 打包下载：本组全部图片加上翻译文本和 translations.json，边压缩边输出，不生成临时文件
+        Spark.get("/export-zip/:group", (req, res) -> {
+            String group = req.params(":group");
+            List<ListingIndex.FileEntry> images = listingIndex.files(group);
+            if (images == null) {
                 res.status(404);
                 return "分组不存在";
             }
 
-            StringBuilder output = new StringBuilder();
-            output.append("=== 分组 [").append(group).append("] ===\n");
-            translations.get(group).forEach((filename, areas) -> {
-                output.append("--- 文件: ").append(filename).append(" ---\n");
-                appendTranslations(output, areas);
+            res.type("application/zip");
+            res.header("Content-Disposition", "attachment; filename*=UTF-8''"
+                + URLEncoder.encode(group + ".zip", "UTF-8").replace("+", "%20"));
+            writeGroupZip(res.raw().getOutputStream(), group, images, Jobs.Job.inline("export-zip", group));
+            return "";
+        });
+
+        // 后台打包：写到任务结果文件，完成后从 /jobs/编号/result 下载，可以断点续传
+        Spark.post("/export-zip/:group", (req, res) -> {
+            String group = req.params(":group");
+            List<ListingIndex.FileEntry> images = listingIndex.files(group);
+            if (images == null) {
+                res.status(404);
+                return "分组不存在";
+            }
+            return startJob(req, res, "export-zip", group, job -> {
+                Path result = Jobs.resultPath(job, "zip");
+                job.result(result, group + ".zip", "application/zip");
+                try (OutputStream out = Files.newOutputStream(result)) {
+                    writeGroupZip(out, group, images, job);
+                }
             });
-            return prepareExport(res, output);
         });
     }
 
-    private static void appendTranslations(StringBuilder output, List<TranslationArea> areas) {
+    // 逐个分组读取并直接写出，不在内存里拼接全部文本
+    private static void exportAll(Writer output, Jobs.Job job) throws IOException {
+        List<String> groups = listGroups();
+        for (int i = 0; i < groups.size(); i++) {
+            job.progress(i, groups.size());
+            job.checkpoint();
+            Map<String, List<TranslationArea>> files = readGroup(groups.get(i));
+            if (files != null) {
+                appendGroup(output, groups.get(i), files);
+            }
+        }
+        job.progress(groups.size(), groups.size());
+    }
+
+    private static void writeGroupZip(OutputStream out, String group, List<ListingIndex.FileEntry> images, Jobs.Job job) throws IOException {
+        Map<String, List<TranslationArea>> files = groupSnapshot(group);
+        if (files == null) {
+            files = Collections.emptyMap();
+        }
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, EXPORT_BUFFER_SIZE), StandardCharsets.UTF_8)) {
+            Writer text = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+            zip.putNextEntry(new ZipEntry("translations.txt"));
+            appendGroup(text, group, files);
+            text.flush();
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry(TRANSLATION_FILE));
+            gson.toJson(files, text);
+            text.flush();
+            zip.closeEntry();
+
+            // 图片本身已经压缩过，只存储不再压缩
+            zip.setLevel(Deflater.NO_COMPRESSION);
+            for (int i = 0; i < images.size(); i++) {
+                job.progress(i, images.size());
+                job.checkpoint();
+                ListingIndex.FileEntry file = images.get(i);
+                Path image = objectStore.resolve(group, file.name);
+                if (image == null) {
+                    continue;
+                }
+                zip.putNextEntry(new ZipEntry("images/" + file.name));
+                Files.copy(image, zip);
+                zip.closeEntry();
+            }
+            job.progress(images.size(), images.size());
+        }
+    }
+
+    private static void appendGroup(Appendable output, String group, Map<String, List<TranslationArea>> files) throws IOException {
+        output.append("=== 分组 [").append(group).append("] ===\n");
+        for (Map.Entry<String, List<TranslationArea>> file : files.entrySet()) {
+            output.append("--- 文件: ").append(file.getKey()).append(" ---\n");
+            appendTranslations(output, file.getValue());
+        }
+    }
+
+    private static void appendTranslations(Appendable output, List<TranslationArea> areas) throws IOException {
         for (int i = 0; i < areas.size(); i++) {
             TranslationArea area = areas.get(i);
-            output.append(String.format("区域 %d [位置: %dpx, %dpx 尺寸: %dx%d]\n", 
-                i+1, area.x, area.y, area.width, area.height));
+            output.append("区域 ").append(Integer.toString(i + 1))
+                .append(" [位置: ").append(Integer.toString(area.x)).append("px, ")
+                .append(Integer.toString(area.y)).append("px 尺寸: ")
+                .append(Integer.toString(area.width)).append('x').append(Integer.toString(area.height)).append("]\n");
             output.append("原文: ").append(area.original);
             output.append("\n翻译: ").append(area.translation).append("\n\n");
         }
     }
 
-    private static String prepareExport(spark.Response res, StringBuilder output) {
+    // 设置下载响应头并返回直接写入响应的输出流；客户端支持时用 gzip 压缩传输
+    private static Writer openExport(spark.Request req, spark.Response res) throws IOException {
         res.header("Content-Disposition", "attachment; filename=translations.txt");
-        res.type("text/plain");
-        return output.toString();
+        res.type("text/plain; charset=utf-8");
+        OutputStream stream = res.raw().getOutputStream();
+        String acceptEncoding = req.headers("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            res.header("Content-Encoding", "gzip");
+            res.header("Vary", "Accept-Encoding");
+            stream = new GZIPOutputStream(stream, EXPORT_BUFFER_SIZE);
+        }
+        return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), EXPORT_BUFFER_SIZE);
     }
 
     private static String loadChangelog() {
@@ -0,0 +1,306 @@
+// 编辑页脚本。页面外壳是静态文件，分组和文件名取自地址栏 /edit/分组/文件，标注数据从 /api/areas 读取。
+// saved 记录服务端各区域的内容，保存时只提交与它不同的区域；
+// 改动停顿片刻后自动提交，同时长轮询 /collab 接收其他人的改动，实现多人同时编辑
+let parts = location.pathname.split('/');
+let group = decodeURIComponent(parts[2]);
+let filename = decodeURIComponent(parts[3]);
+let pagePath = encodeURIComponent(group) + '/' + encodeURIComponent(filename);
+document.title = '编辑翻译：' + filename;
+document.getElementById('title').textContent = '编辑翻译：' + filename;
+document.getElementById('back').href = '/group/' + encodeURIComponent(group);
+
+let canvas = new fabric.Canvas('main-canvas', { selection: false });
+let currentRect = null;
+let startX = 0, startY = 0;
+let version = 0;
+let clientId = newId();
+let saved = new Map();
+
+fetch('/api/areas/' + pagePath).then(r => r.json()).then(page => {
+  // 画布显示预览图，标注坐标仍按原图像素保存，按两者宽度之比缩放
+  let img = new Image();
+  img.onload = () => {
+    let scale = page.width ? img.width / page.width : 1;
+    canvas.setWidth(img.width);
+    canvas.setHeight(img.height);
+    canvas.setZoom(scale);
+    canvas.setBackgroundImage(img.src, canvas.renderAll.bind(canvas), { scaleX: 1 / scale, scaleY: 1 / scale });
+  };
+  img.src = '/preview/' + pagePath;
+  version = page.version;
+  remember(page.areas);
+  page.areas.forEach(addArea);
+  canvas.on('object:modified', scheduleSync);
+  poll();
+});
+
+function newId() {
+  return 'c' + Date.now().toString(36) + Math.random().toString(36).substr(2, 6);
+}
+
+// 统一字段顺序和空值，保证同样内容的区域比较结果相同
+function canonical(area) {
+  return JSON.stringify({ id: area.id, x: area.x, y: area.y, width: area.width, height: area.height,
+    original: area.original || '', translation: area.translation || '' });
+}
+
+function remember(list) {
+  saved = new Map(list.map(area => [area.id, canonical(area)]));
+}
+
+function addArea(area) {
+  let rect = new fabric.Rect({
+    id: area.id,
+    left: area.x,
+    top: area.y,
+    width: area.width,
+    height: area.height,
+    fill: 'rgba(255,0,0,0.3)',
+    stroke: 'red',
+    strokeWidth: 2,
+    hasControls: true,
+    data: area
+  });
+  canvas.add(rect);
+  showTranslationBox(rect, area);
+}
+
+// 只改有变化的属性，正在输入的输入框不会丢失光标
+function upsertArea(area) {
+  let rect = canvas.getObjects().find(obj => obj.id === area.id);
+  if (!rect) {
+    addArea(area);
+    return;
+  }
+  rect.set({ left: area.x, top: area.y, width: area.width, height: area.height });
+  rect.setCoords();
+  let inputs = document.querySelector(`.translation-box[data-rect-id="${area.id}"]`).getElementsByTagName('input');
+  if (inputs[0].value !== (area.original || '')) inputs[0].value = area.original || '';
+  if (inputs[1].value !== (area.translation || '')) inputs[1].value = area.translation || '';
+  canvas.renderAll();
+}
+
+function removeArea(id) {
+  let rect = canvas.getObjects().find(obj => obj.id === id);
+  if (rect) canvas.remove(rect);
+  let box = document.querySelector(`.translation-box[data-rect-id="${id}"]`);
+  if (box) box.remove();
+}
+
+// 以服务端整页内容为准，再叠加本地还没保存的改动
+function resync(list, ops) {
+  remember(list);
+  let latest = new Map(list.map(area => [area.id, area]));
+  ops.forEach(op => op.op === 'delete' ? latest.delete(op.id) : latest.set(op.area.id, op.area));
+  canvas.getObjects().slice().forEach(obj => { if (!latest.has(obj.id)) removeArea(obj.id); });
+  latest.forEach(upsertArea);
+}
+
+// 其他人的改动：本地也改了还没保存的区域保留本地内容，下次提交时覆盖
+function applyRemote(event) {
+  if (event.version <= version) return;
+  version = event.version;
+  if (event.client === clientId) return;
+  let local = diff(collect());
+  if (event.areas) {
+    resync(event.areas, local);
+    return;
+  }
+  let pending = new Set(local.map(op => op.op === 'delete' ? op.id : op.area.id));
+  event.ops.forEach(op => {
+    let id = op.op === 'delete' ? op.id : op.area.id;
+    if (op.op === 'delete') saved.delete(id);
+    else saved.set(id, canonical(op.area));
+    if (pending.has(id)) return;
+    if (op.op === 'delete') removeArea(id);
+    else upsertArea(op.area);
+  });
+}
+
+function poll() {
+  fetch('/collab/' + pagePath + '?since=' + version).then(r => r.json()).then(result => {
+    if (result.reset) {
+      let local = diff(collect());
+      version = result.version;
+      resync(result.areas, local);
+    } else {
+      result.events.forEach(applyRemote);
+    }
+    poll();
+  }).catch(() => setTimeout(poll, 3000));
+}
+
+function enableRect() {
+  canvas.isDrawingMode = false;
+  canvas.on('mouse:down', startRect);
+  canvas.on('mouse:move', drawRect);
+  canvas.on('mouse:up', finishRect);
+}
+
+function startRect(e) {
+  startX = e.absolutePointer.x;
+  startY = e.absolutePointer.y;
+  currentRect = new fabric.Rect({
+    id: newId(),
+    left: startX,
+    top: startY,
+    width: 0,
+    height: 0,
+    fill: 'rgba(0,255,0,0.3)',
+    stroke: 'green',
+    strokeWidth: 2,
+    selectable: true
+  });
+  canvas.add(currentRect);
+}
+
+function drawRect(e) {
+  if (!currentRect) return;
+  let x = e.absolutePointer.x;
+  let y = e.absolutePointer.y;
+  currentRect.set({
+    width: x - startX,
+    height: y - startY
+  });
+  canvas.renderAll();
+}
+
+function finishRect() {
+  currentRect.setCoords();
+  showTranslationBox(currentRect, { original: '', translation: '' });
+  currentRect = null;
+  scheduleSync();
+}
+
+function showTranslationBox(rect, areaData) {
+  let box = document.createElement('div');
+  box.className = 'translation-box';
+  box.dataset.rectId = rect.id;
+  box.innerHTML = `
+    <h3>翻译区域 #${canvas.getObjects().length}</h3>
+    <input type='text' placeholder='原文' 
+           value='${areaData?.original || ''}'
+           style='width: 200px; margin-right: 10px;'>
+    <input type='text' placeholder='翻译内容' list='tm-${rect.id}'
+           value='${areaData?.translation || ''}'
+           style='width: 300px;'>
+    <datalist id='tm-${rect.id}'></datalist>
+    <button onclick='deleteTranslationBox(this)'>删除</button>
+  `;
+  let original = box.getElementsByTagName('input')[0];
+  original.addEventListener('input', () => suggest(original.value, box.querySelector('datalist')));
+  Array.from(box.getElementsByTagName('input')).forEach(input => input.addEventListener('input', scheduleSync));
+  document.body.appendChild(box);
+}
+
+// 输入原文后稍等片刻再查翻译记忆，把已有译法放进译文输入框的候选列表
+let suggestTimer = null;
+function suggest(text, list) {
+  clearTimeout(suggestTimer);
+  suggestTimer = setTimeout(() => {
+    list.innerHTML = '';
+    if (!text.trim()) return;
+    fetch('/tm/suggest?q=' + encodeURIComponent(text)).then(r => r.ok ? r.json() : { suggestions: [] }).then(result => {
+      result.suggestions.forEach(s => s.translations.forEach(t => {
+        let option = document.createElement('option');
+        option.value = t.text;
+        option.label = Math.round(s.similarity * 100) + '% ' + s.original;
+        list.appendChild(option);
+      }));
+    });
+  }, 300);
+}
+
+function deleteTranslationBox(button) {
+  let box = button.parentElement;
+  let rectId = box.dataset.rectId;
+  let rect = canvas.getObjects().find(obj => obj.id === rectId);
+  if (rect) canvas.remove(rect);
+  box.remove();
+  scheduleSync();
+}
+
+function collect() {
+  let areas = [];
+  canvas.getObjects().forEach((obj) => {
+    if (obj instanceof fabric.Rect) {
+      let box = document.querySelector(`.translation-box[data-rect-id="${obj.id}"]`);
+      if (!box) return;
+      let inputs = box.getElementsByTagName('input');
+      areas.push({
+        id: obj.id,
+        x: Math.round(obj.left),
+        y: Math.round(obj.top),
+        width: Math.round(obj.width),
+        height: Math.round(obj.height),
+        original: inputs[0].value,
+        translation: inputs[1].value
+      });
+    }
+  });
+  return areas;
+}
+
+function diff(areas) {
+  let ops = [];
+  let ids = new Set();
+  areas.forEach(area => {
+    ids.add(area.id);
+    if (!saved.has(area.id)) ops.push({ op: 'add', area: area });
+    else if (saved.get(area.id) !== canonical(area)) ops.push({ op: 'update', area: area });
+  });
+  saved.forEach((json, id) => { if (!ids.has(id)) ops.push({ op: 'delete', id: id }); });
+  return ops;
+}
+
+function saveTranslations() {
+  flush('save');
+}
+
+let syncTimer = null;
+function scheduleSync() {
+  clearTimeout(syncTimer);
+  syncTimer = setTimeout(() => flush('sync'), 500);
+}
+
+// 同一时间只有一个提交在途，期间的改动等它返回后再提交；mode 为 save 时提示结果
+let sending = false, queued = null;
+function flush(mode) {
+  if (sending) {
+    queued = mode === 'save' ? 'save' : (queued || mode);
+    return;
+  }
+  let ops = diff(collect());
+  if (!ops.length) {
+    if (mode === 'save') alert('没有需要保存的修改');
+    return;
+  }
+  sending = true;
+  fetch('/save/' + pagePath, {
+    method: 'PATCH',
+    headers: { 'Content-Type': 'application/json' },
+    body: JSON.stringify({ base: version, client: clientId, ops: ops })
+  }).then(response => response.json().then(result => {
+    sending = false;
+    if (response.ok) {
+      version = Math.max(version, result.version);
+      ops.forEach(op => op.op === 'delete' ? saved.delete(op.id) : saved.set(op.area.id, canonical(op.area)));
+      if (mode === 'save') alert(result.pending ? '已保存，但暂时没能写入磁盘，服务器会自动重试' : '保存成功！');
+    } else if (response.status === 409) {
+      // 别人先保存了这一页：把本地改动叠加到最新内容上再提交
+      version = result.version;
+      resync(result.areas, ops);
+      queued = mode === 'save' ? 'save' : (queued || mode);
+    } else {
+      alert('保存失败：' + result.error);
+    }
+    if (queued) {
+      let next = queued;
+      queued = null;
+      flush(next);
+    }
+  })).catch(() => {
+    sending = false;
+    alert('保存失败！');
+  });
+}
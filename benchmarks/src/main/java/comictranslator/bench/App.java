@@ -0,0 +1,78 @@
+package comictranslator.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ComicTranslator 在默认包里，具名包中的测试代码不能直接引用，这里用反射取出要测的静态方法。
+ * 方法句柄存在 static final 字段里，JIT 可以内联，调用开销与直接调用相当。
+ */
+final class App {
+    private static final Class<?> CLASS = load();
+
+    // loadGroup(Path groupPath, boolean compact)：读 translations.json 并重放日志
+    static final MethodHandle LOAD_GROUP = method("loadGroup", Path.class, boolean.class);
+    // writeSnapshot(Path groupPath, Map groupTranslations)：saveTranslationsToFile 写盘部分
+    static final MethodHandle WRITE_SNAPSHOT = method("writeSnapshot", Path.class, Map.class);
+    // appendGroup(Appendable output, String group, Map files)：导出文本，内部逐页调用 appendTranslations
+    static final MethodHandle APPEND_GROUP = method("appendGroup", Appendable.class, String.class, Map.class);
+    // areasJson(List areas, int width)：编辑页 /api/areas 的响应内容
+    static final MethodHandle AREAS_JSON = method("areasJson", List.class, int.class);
+    // gzip(byte[] bytes)：响应压缩，压缩后不更小时返回 null
+    static final MethodHandle GZIP = method("gzip", byte[].class);
+
+    private App() {
+    }
+
+    private static Class<?> load() {
+        try {
+            return Class.forName("ComicTranslator");
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("类路径上没有 ComicTranslator", e);
+        }
+    }
+
+    private static MethodHandle method(String name, Class<?>... parameterTypes) {
+        return method(CLASS, name, parameterTypes);
+    }
+
+    // 嵌套类（SearchIndex 等）是包私有的，同样只能反射取
+    static Class<?> nested(String name) {
+        try {
+            return Class.forName(CLASS.getName() + "$" + name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("ComicTranslator 中找不到嵌套类 " + name, e);
+        }
+    }
+
+    // 静态方法或实例方法；实例方法的句柄第一个参数是对象本身
+    static MethodHandle method(Class<?> owner, String name, Class<?>... parameterTypes) {
+        try {
+            Method method = owner.getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(owner.getSimpleName() + " 中找不到 " + name + "，方法签名改了要同步修改这里", e);
+        }
+    }
+
+    static MethodHandle constructor(Class<?> owner, Class<?>... parameterTypes) {
+        try {
+            Constructor<?> constructor = owner.getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(owner.getSimpleName() + " 的构造方法签名改了，要同步修改这里", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, List<?>> loadGroup(Path groupPath) throws Throwable {
+        return (Map<String, List<?>>) LOAD_GROUP.invoke(groupPath, false);
+    }
+}
@@ -0,0 +1,58 @@
+package comictranslator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 打开编辑页时的服务端工作。编辑页外壳是预先压缩好的静态文件，每次请求真正要生成的是
+ * /api/areas 的 JSON（areasJson）和它的 gzip 版本，这里按每页标注数测这两步。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditorDataBenchmark {
+    @Param({ "10", "50", "200" })
+    public int areas;
+
+    private List<?> page;
+    private byte[] json;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        Path dir = SyntheticData.createTempGroup("bench-editor");
+        try {
+            SyntheticData.writeGroup(dir, 1, areas, 42);
+            page = App.loadGroup(dir).values().iterator().next();
+        } finally {
+            SyntheticData.delete(dir);
+        }
+        json = areasJson();
+    }
+
+    @Benchmark
+    public byte[] areasJson() throws Throwable {
+        return (byte[]) App.AREAS_JSON.invoke(page, 1600);
+    }
+
+    @Benchmark
+    public byte[] gzip() throws Throwable {
+        return (byte[]) App.GZIP.invoke(json);
+    }
+}
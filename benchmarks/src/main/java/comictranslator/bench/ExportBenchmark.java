@@ -0,0 +1,60 @@
+package comictranslator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 导出文本的格式化（appendGroup / appendTranslations），写到丢弃输出的 UTF-8 Writer，
+ * 包含编码但不含网络和 gzip，与 /export 和后台导出任务的缓冲大小相同。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+    @Param({ "100", "1000", "10000" })
+    public int pages;
+
+    private Map<String, List<?>> group;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        Path dir = SyntheticData.createTempGroup("bench-export");
+        try {
+            SyntheticData.writeGroup(dir, pages, 8, 42);
+            group = App.loadGroup(dir);
+        } finally {
+            SyntheticData.delete(dir);
+        }
+    }
+
+    @Benchmark
+    public void appendGroup() throws Throwable {
+        try (Writer output = new BufferedWriter(
+                new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8), 64 * 1024)) {
+            App.APPEND_GROUP.invoke((Appendable) output, "bench", group);
+        }
+    }
+}
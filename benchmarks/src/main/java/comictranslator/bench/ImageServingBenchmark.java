@@ -0,0 +1,112 @@
+package comictranslator.bench;
+
+import comictranslator.load.ServerProcess;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过 HTTP 取一张原图，包含本机网络往返。服务在子进程里启动，与实际部署相同。
+ * image：现在的 /image 路由，ETag 协商后用 FileChannel.transferTo 写出（不映射到内存，Windows 上发送后文件仍可删除）；
+ * legacyStatic：改动前的 Spark 静态文件目录（Spark.staticFiles.externalLocation(UPLOAD_DIR)），同一个文件。
+ * 图片内容是随机字节，只测传输，不解码。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageServingBenchmark {
+    private static final String GROUP = "bench";
+    private static final String FILE = "img.jpg";
+
+    @Param({ "65536", "1048576", "4194304" })
+    public int size;
+
+    private Path currentDir;
+    private Path legacyDir;
+    private ServerProcess current;
+    private ServerProcess legacy;
+    private HttpRequest imageRequest;
+    private HttpRequest legacyRequest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        byte[] image = new byte[size];
+        new Random(42).nextBytes(image);
+
+        currentDir = SyntheticData.createTempGroup("bench-image");
+        current = ServerProcess.start(currentDir);
+        current.createGroup(GROUP);
+        current.upload(GROUP, FILE, image);
+        imageRequest = HttpRequest.newBuilder(current.uri("/image/" + GROUP + "/" + FILE)).build();
+
+        legacyDir = SyntheticData.createTempGroup("bench-static");
+        Path uploads = legacyDir.resolve("uploads");
+        Files.createDirectories(uploads.resolve(GROUP));
+        Files.write(uploads.resolve(GROUP).resolve(FILE), image);
+        legacy = ServerProcess.startMain(legacyDir, LegacyStaticServer.class.getName(), "-Dstatic.dir=" + uploads);
+        legacyRequest = HttpRequest.newBuilder(legacy.uri("/" + GROUP + "/" + FILE)).build();
+
+        // 两边返回的内容必须就是这张图，否则比较没有意义
+        check(current.client().send(imageRequest, HttpResponse.BodyHandlers.ofByteArray()), image);
+        check(legacy.client().send(legacyRequest, HttpResponse.BodyHandlers.ofByteArray()), image);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (current != null) {
+            current.stop();
+        }
+        if (legacy != null) {
+            legacy.stop();
+        }
+        SyntheticData.delete(currentDir);
+        SyntheticData.delete(legacyDir);
+    }
+
+    @Benchmark
+    public int image() throws Exception {
+        return fetch(current, imageRequest);
+    }
+
+    @Benchmark
+    public int legacyStatic() throws Exception {
+        return fetch(legacy, legacyRequest);
+    }
+
+    // 读完整个响应体但不保留，避免把分配大数组算进去
+    private int fetch(ServerProcess server, HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<Void> response = server.client().send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 200) {
+            throw new IOException(request.uri() + " 返回 " + response.statusCode());
+        }
+        return response.statusCode();
+    }
+
+    private static void check(HttpResponse<byte[]> response, byte[] image) throws IOException {
+        if (response.statusCode() != 200 || !Arrays.equals(response.body(), image)) {
+            throw new IOException(response.uri() + " 返回 " + response.statusCode() + "，内容与上传的图片不同");
+        }
+    }
+}
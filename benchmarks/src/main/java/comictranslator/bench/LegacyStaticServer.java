@@ -0,0 +1,19 @@
+package comictranslator.bench;
+
+import spark.Spark;
+
+/**
+ * 改成图片路由之前的图片服务方式：Spark 静态文件目录直接对外提供 uploads，地址是 /分组/文件名。
+ * 只作为 ImageServingBenchmark 的对照，由 ServerProcess 在子进程里启动，目录用 -Dstatic.dir 指定。
+ */
+final class LegacyStaticServer {
+    private LegacyStaticServer() {
+    }
+
+    public static void main(String[] args) {
+        Spark.port(Integer.getInteger("server.port", 8080));
+        Spark.staticFiles.externalLocation(System.getProperty("static.dir", "uploads"));
+        Spark.get("/", (req, res) -> "");
+        Spark.awaitInitialization();
+    }
+}
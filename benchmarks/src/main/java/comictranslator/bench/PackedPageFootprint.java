@@ -0,0 +1,93 @@
+package comictranslator.bench;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.Reader;
+import java.lang.ref.Reference;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 紧凑页面（PackedPage）与逐个区域对象（List&lt;TranslationArea&gt;）的内存占用对比：
+ * 同一批 SyntheticData 分组分别用 Gson 直接解析成区域对象、用 loadGroup 加载成紧凑页面，
+ * 各自全部留在内存里，GC 后的堆增量就是这些页面的占用。不是 JMH 测试，结果是字节数，不是时间。
+ *
+ * 用法：java [-Dareas=1000000] [-DareasPerPage=20] -cp benchmarks/target/benchmarks.jar comictranslator.bench.PackedPageFootprint
+ */
+public final class PackedPageFootprint {
+    private static final int AREAS = Integer.getInteger("areas", 1_000_000);
+    private static final int AREAS_PER_PAGE = Integer.getInteger("areasPerPage", 20);
+    private static final int PAGES_PER_GROUP = 500;
+
+    private PackedPageFootprint() {
+    }
+
+    public static void main(String[] args) throws Throwable {
+        int groupCount = Math.max(1, AREAS / (PAGES_PER_GROUP * AREAS_PER_PAGE));
+        List<Path> groups = new ArrayList<>();
+        try {
+            for (int g = 0; g < groupCount; g++) {
+                Path dir = SyntheticData.createTempGroup("bench-footprint");
+                groups.add(dir);
+                SyntheticData.writeGroup(dir, PAGES_PER_GROUP, AREAS_PER_PAGE, 42 + g);
+            }
+            System.out.println(groupCount + " 个分组，共 " + (long) groupCount * PAGES_PER_GROUP + " 页、"
+                + (long) groupCount * PAGES_PER_GROUP * AREAS_PER_PAGE + " 个区域");
+
+            Type type = TypeToken.getParameterized(Map.class, String.class,
+                TypeToken.getParameterized(List.class, App.nested("TranslationArea")).getType()).getType();
+            Gson gson = new Gson();
+            long plain = footprint(() -> {
+                List<Object> loaded = new ArrayList<>();
+                for (Path group : groups) {
+                    try (Reader in = Files.newBufferedReader(group.resolve("translations.json"), StandardCharsets.UTF_8)) {
+                        loaded.add(gson.fromJson(in, type));
+                    }
+                }
+                return loaded;
+            });
+            long packed = footprint(() -> {
+                List<Object> loaded = new ArrayList<>();
+                for (Path group : groups) {
+                    loaded.add(App.loadGroup(group));
+                }
+                return loaded;
+            });
+
+            System.out.printf("List<TranslationArea>: %6.1f MB%n", plain / 1048576.0);
+            System.out.printf("PackedPage:            %6.1f MB（%.0f%%）%n", packed / 1048576.0, packed * 100.0 / plain);
+        } finally {
+            for (Path group : groups) {
+                SyntheticData.delete(group);
+            }
+        }
+    }
+
+    interface Loader {
+        Object load() throws Throwable;
+    }
+
+    // 加载前后各做几次 GC，取已用堆的差；加载结果在测量结束前保持可达
+    private static long footprint(Loader loader) throws Throwable {
+        long before = usedAfterGc();
+        Object loaded = loader.load();
+        long after = usedAfterGc();
+        Reference.reachabilityFence(loaded);
+        return after - before;
+    }
+
+    private static long usedAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
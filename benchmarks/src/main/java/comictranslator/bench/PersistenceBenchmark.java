@@ -0,0 +1,67 @@
+package comictranslator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分组的加载和整组写盘，分组大小从 100 页到 10000 页。
+ * load：冷启动或缓存淘汰后第一次访问分组时的 Gson 解析和紧凑页面构建（loadTranslations 逐组调用）；
+ * writeSnapshot：snapshot 模式每次保存、journal 模式压缩日志时的整组重写，包含 fsync，结果受磁盘影响。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+    @Param({ "100", "1000", "10000" })
+    public int pages;
+
+    @Param({ "8" })
+    public int areasPerPage;
+
+    private Path source;
+    private Path target;
+    private Map<String, List<?>> group;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        source = SyntheticData.createTempGroup("bench-load");
+        SyntheticData.writeGroup(source, pages, areasPerPage, 42);
+        target = SyntheticData.createTempGroup("bench-save");
+        group = App.loadGroup(source);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        SyntheticData.delete(source);
+        SyntheticData.delete(target);
+    }
+
+    @Benchmark
+    public Object load() throws Throwable {
+        return App.loadGroup(source);
+    }
+
+    @Benchmark
+    public void writeSnapshot() throws Throwable {
+        App.WRITE_SNAPSHOT.invoke(target, group);
+    }
+}
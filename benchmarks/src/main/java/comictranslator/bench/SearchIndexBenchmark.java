@@ -0,0 +1,140 @@
+package comictranslator.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全文搜索索引（SearchIndex）在百万级区域上的建索引、查询和保存后更新。
+ * 页面来自 SyntheticData 生成、loadGroup 加载的紧凑页面，每组 500 页、每页 20 个区域；
+ * 索引取页面核对原文时读的是内存里的表，相当于分组全在缓存里，不含读盘。
+ * 词表只有十几个词，常用词命中两成左右的区域，查询结果数量很大，是最坏情况。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class SearchIndexBenchmark {
+    private static final int PAGES_PER_GROUP = 500;
+    private static final int AREAS_PER_PAGE = 20;
+
+    private static final Class<?> SEARCH_INDEX = App.nested("SearchIndex");
+    private static final Class<?> PAGES = App.nested("SearchIndex$Pages");
+    // SearchIndex(Pages pages)
+    private static final MethodHandle NEW_INDEX = App.constructor(SEARCH_INDEX, PAGES);
+    // addIfAbsent(String group, String file, List page)：启动时后台建索引逐页调用
+    private static final MethodHandle ADD_IF_ABSENT = App.method(SEARCH_INDEX, "addIfAbsent", String.class, String.class, List.class);
+    // replace(String group, String file, List page)：每次保存后调用
+    private static final MethodHandle REPLACE = App.method(SEARCH_INDEX, "replace", String.class, String.class, List.class);
+    // search(String query, String groupFilter, int page, int size)：/search 路由
+    private static final MethodHandle SEARCH = App.method(SEARCH_INDEX, "search", String.class, String.class, int.class, int.class);
+
+    @Param({ "1000000", "4000000" })
+    public int segments;
+
+    // 分组 → 文件 → 当前页面，充当分组缓存
+    private final Map<String, Map<String, List<?>>> store = new HashMap<>();
+    private final List<String> groups = new ArrayList<>();
+    private final List<String> files = new ArrayList<>();
+    private Object index;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        int groupCount = Math.max(1, segments / (PAGES_PER_GROUP * AREAS_PER_PAGE));
+        for (int g = 0; g < groupCount; g++) {
+            Path dir = SyntheticData.createTempGroup("bench-search");
+            try {
+                SyntheticData.writeGroup(dir, PAGES_PER_GROUP, AREAS_PER_PAGE, 42 + g);
+                store.put("g" + g, new HashMap<>(App.loadGroup(dir)));
+            } finally {
+                SyntheticData.delete(dir);
+            }
+        }
+        for (Map.Entry<String, Map<String, List<?>>> group : store.entrySet()) {
+            for (String file : group.getValue().keySet()) {
+                groups.add(group.getKey());
+                files.add(file);
+            }
+        }
+        index = buildIndex();
+    }
+
+    private Object buildIndex() throws Throwable {
+        Object pages = Proxy.newProxyInstance(PAGES.getClassLoader(), new Class<?>[] { PAGES },
+            (proxy, method, args) -> store.get((String) args[0]).getOrDefault((String) args[1], new ArrayList<>()));
+        Object built = NEW_INDEX.invoke(pages);
+        for (int i = 0; i < groups.size(); i++) {
+            ADD_IF_ABSENT.invoke(built, groups.get(i), files.get(i), store.get(groups.get(i)).get(files.get(i)));
+        }
+        return built;
+    }
+
+    // 启动时的全量建索引，每次从空索引开始
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public Object index() throws Throwable {
+        return buildIndex();
+    }
+
+    // 两个汉字：倒排表命中即为包含，不核对原文，只取出显示的 20 条
+    @Benchmark
+    public Object searchTwoCharacters() throws Throwable {
+        return SEARCH.invoke(index, "明天", (String) null, 1, 20);
+    }
+
+    // 三个字以上只靠两字词条近似，每个候选都要取回页面核对
+    @Benchmark
+    public Object searchVerified() throws Throwable {
+        return SEARCH.invoke(index, "你这家伙", (String) null, 1, 20);
+    }
+
+    // 两个词同时出现，倒排表求交集
+    @Benchmark
+    public Object searchTwoTerms() throws Throwable {
+        return SEARCH.invoke(index, "谢谢 明天", (String) null, 1, 20);
+    }
+
+    @Benchmark
+    public Object searchInGroup() throws Throwable {
+        return SEARCH.invoke(index, "明天", "g0", 1, 20);
+    }
+
+    // 词表里没有的字，倒排表为空
+    @Benchmark
+    public Object searchMiss() throws Throwable {
+        return SEARCH.invoke(index, "灯塔", (String) null, 1, 20);
+    }
+
+    // 保存一页：换成另一页的内容，旧区域作废，累计到一定数量时压缩收回编号
+    @Benchmark
+    public void replace() throws Throwable {
+        int target = next++ % groups.size();
+        int source = (target + 1) % groups.size();
+        List<?> page = store.get(groups.get(source)).get(files.get(source));
+        store.get(groups.get(target)).put(files.get(target), page);
+        REPLACE.invoke(index, groups.get(target), files.get(target), page);
+    }
+}
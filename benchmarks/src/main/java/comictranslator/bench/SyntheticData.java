@@ -0,0 +1,90 @@
+package comictranslator.bench;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * 生成测试用的分组目录：translations.json 格式与服务写出的一致，原文为日文、译文为中文，
+ * 长度和坐标随机但种子固定，每次运行的数据相同，结果可以互相比较。
+ */
+final class SyntheticData {
+    private static final String[] ORIGINAL = {
+        "どうして", "ここに", "いるの", "ちょっと待って", "お前", "やっぱり", "大丈夫", "本当に",
+        "行くぞ", "なんだと", "ありがとう", "また明日", "あいつは", "絶対に", "許さない", "！", "？", "…",
+    };
+    private static final String[] TRANSLATION = {
+        "为什么", "在这里", "你还在", "等一下", "你这家伙", "果然", "没事吧", "真的吗",
+        "走了", "你说什么", "谢谢", "明天见", "那家伙", "绝对", "不会原谅", "！", "？", "……",
+    };
+
+    private SyntheticData() {
+    }
+
+    static Path createTempGroup(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix);
+    }
+
+    /**
+     * 在 groupPath 下写出 pages 页、每页 areasPerPage 个标注的 translations.json。
+     */
+    static void writeGroup(Path groupPath, int pages, int areasPerPage, long seed) throws IOException {
+        Random random = new Random(seed);
+        Files.createDirectories(groupPath);
+        try (Writer out = Files.newBufferedWriter(groupPath.resolve("translations.json"), StandardCharsets.UTF_8);
+             JsonWriter json = new JsonWriter(out)) {
+            json.beginObject();
+            for (int page = 0; page < pages; page++) {
+                json.name(String.format("%05d.jpg", page)).beginArray();
+                for (int i = 0; i < areasPerPage; i++) {
+                    json.beginObject()
+                        .name("id").value("a" + i)
+                        .name("x").value(random.nextInt(1400))
+                        .name("y").value(random.nextInt(2000))
+                        .name("width").value(40 + random.nextInt(300))
+                        .name("height").value(40 + random.nextInt(400))
+                        .name("original").value(text(random, ORIGINAL))
+                        .name("translation").value(text(random, TRANSLATION))
+                        .endObject();
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+    }
+
+    private static String text(Random random, String[] words) {
+        StringBuilder text = new StringBuilder();
+        for (int n = 1 + random.nextInt(6); n > 0; n--) {
+            text.append(words[random.nextInt(words.length)]);
+        }
+        return text.toString();
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,228 @@
+package comictranslator.load;
+
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并发保存和导出的压力测试：clients 个客户端各自负责一部分页面反复整页保存，同时 exporters 个客户端不停导出全部翻译。
+ * 检查三件事：
+ * 1. 保存和导出全部成功，运行中导出的每一页都是某一次完整保存的内容，不会一页里新旧混杂；
+ * 2. 保存全部确认后导出一次，每页都是该页最后一次保存的内容；
+ * 3. 正常关闭服务（关闭钩子写出待保存数据）再启动（加载快照、重放日志）后导出，与关闭前逐页相同。
+ * 有检查不通过时退出码为 1。
+ *
+ * 用法：java [-Dclients=32] [-Dsaves=800] [-Dpages=64] [-Dexporters=2] [-Dareas=5] [-Dserver.args=...]
+ *       -cp benchmarks/target/benchmarks.jar comictranslator.load.SaveExportStress
+ */
+public final class SaveExportStress {
+    private static final String GROUP = "stress";
+    private static final int CLIENTS = Integer.getInteger("clients", 32);
+    private static final int SAVES = Integer.getInteger("saves", 800);
+    private static final int PAGES = Integer.getInteger("pages", 64);
+    private static final int EXPORTERS = Integer.getInteger("exporters", 2);
+    private static final int AREAS = Integer.getInteger("areas", 5);
+    // 传给服务进程的额外参数，空格分隔，例如 -Dsave.ack=fsync
+    private static final String[] SERVER_ARGS = System.getProperty("server.args", "").trim().isEmpty()
+        ? new String[0] : System.getProperty("server.args").trim().split("\\s+");
+
+    private SaveExportStress() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path workDir = Files.createTempDirectory("save-export-stress");
+        System.out.println("工作目录 " + workDir + "，" + CLIENTS + " 个客户端共保存 " + SAVES + " 次，"
+            + PAGES + " 页，" + EXPORTERS + " 个客户端同时导出");
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        Map<String, String> lastSaved = new ConcurrentHashMap<>();
+        Map<String, String> before;
+        try (ServerProcess server = ServerProcess.start(workDir, SERVER_ARGS)) {
+            server.createGroup(GROUP);
+            long start = System.nanoTime();
+            List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+            AtomicBoolean saving = new AtomicBoolean(true);
+            AtomicInteger exports = new AtomicInteger();
+            ExecutorService pool = Executors.newFixedThreadPool(CLIENTS + EXPORTERS);
+            List<Future<?>> savers = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c++) {
+                int client = c;
+                savers.add(pool.submit(() -> {
+                    List<Integer> own = new ArrayList<>();
+                    for (int page = client; page < PAGES; page += CLIENTS) {
+                        own.add(page);
+                    }
+                    int count = SAVES / CLIENTS + (client < SAVES % CLIENTS ? 1 : 0);
+                    for (int n = 0; n < count && !own.isEmpty(); n++) {
+                        String file = pageName(own.get(n % own.size()));
+                        String marker = "c" + client + "-s" + n;
+                        long t = System.nanoTime();
+                        HttpResponse<byte[]> response = server.post("/save/" + GROUP + "/" + file, "application/json", pageJson(marker));
+                        latencies.add(System.nanoTime() - t);
+                        if (response.statusCode() != 200) {
+                            failures.add("保存 " + file + " 返回 " + response.statusCode() + ": " + text(response));
+                        } else {
+                            lastSaved.put(file, marker);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            List<Future<?>> exporters = new ArrayList<>();
+            for (int e = 0; e < EXPORTERS; e++) {
+                exporters.add(pool.submit(() -> {
+                    while (saving.get()) {
+                        HttpResponse<byte[]> response = server.get("/export");
+                        if (response.statusCode() != 200) {
+                            failures.add("导出返回 " + response.statusCode());
+                            continue;
+                        }
+                        checkPagesWhole(parse(text(response)), failures);
+                        exports.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> saver : savers) {
+                saver.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            saving.set(false);
+            for (Future<?> exporter : exporters) {
+                exporter.get();
+            }
+            pool.shutdown();
+
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            System.out.printf("保存 %d 次用时 %.1f s（%.0f 次/秒），延迟 p50 %.1f ms，p99 %.1f ms；期间完成导出 %d 次%n",
+                sorted.size(), elapsed / 1e9, sorted.size() / (elapsed / 1e9),
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6, exports.get());
+
+            before = parse(text(server.get("/export")));
+            checkPagesWhole(before, failures);
+            for (Map.Entry<String, String> page : lastSaved.entrySet()) {
+                String block = before.get(GROUP + "/" + page.getKey());
+                if (block == null || !block.contains("翻译: " + page.getValue() + " ")) {
+                    failures.add("导出中 " + page.getKey() + " 不是最后一次保存的 " + page.getValue());
+                }
+            }
+            server.stop();
+        }
+
+        try (ServerProcess server = ServerProcess.start(workDir, SERVER_ARGS)) {
+            Map<String, String> after = parse(text(server.get("/export")));
+            if (!after.equals(before)) {
+                int differing = 0;
+                for (String key : before.keySet()) {
+                    if (!before.get(key).equals(after.get(key))) {
+                        differing++;
+                    }
+                }
+                failures.add("重启后导出与重启前不同：重启前 " + before.size() + " 页，重启后 " + after.size()
+                    + " 页，内容不同 " + differing + " 页");
+            }
+        }
+
+        if (failures.isEmpty()) {
+            System.out.println("通过：" + lastSaved.size() + " 页与最后一次保存一致，重启前后导出相同");
+            ServerProcess.delete(workDir);
+        } else {
+            failures.stream().limit(20).forEach(failure -> System.out.println("失败: " + failure));
+            System.out.println("共 " + failures.size() + " 项失败，服务日志和数据保留在 " + workDir);
+            System.exit(1);
+        }
+    }
+
+    static String pageName(int page) {
+        return String.format("%03d.jpg", page);
+    }
+
+    // 一次保存的所有区域带同一个标记，导出时据此判断一页是否来自同一次保存
+    static String pageJson(String marker) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < AREAS; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"a").append(i).append("\",\"x\":").append(10 + i * 50)
+                .append(",\"y\":").append(20 + i * 80).append(",\"width\":120,\"height\":60")
+                .append(",\"original\":\"原文").append(i).append("\",\"translation\":\"")
+                .append(marker).append(" 区域").append(i).append("\"}");
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * 把导出文本拆成 分组/文件 → 该页的全部行。导出中页面的先后顺序取决于内存里的表，重启前后可能不同，按页比较。
+     */
+    static Map<String, String> parse(String export) {
+        Map<String, String> pages = new TreeMap<>();
+        String group = null;
+        String file = null;
+        StringBuilder block = new StringBuilder();
+        for (String line : export.split("\n", -1)) {
+            if (line.startsWith("=== 分组 [") || line.startsWith("--- 文件: ")) {
+                if (file != null) {
+                    pages.put(group + "/" + file, block.toString());
+                }
+                file = null;
+                block.setLength(0);
+                if (line.startsWith("=== 分组 [")) {
+                    group = line.substring("=== 分组 [".length(), line.lastIndexOf(']'));
+                } else {
+                    file = line.substring("--- 文件: ".length(), line.lastIndexOf(" ---"));
+                }
+            } else if (file != null) {
+                block.append(line).append('\n');
+            }
+        }
+        if (file != null) {
+            pages.put(group + "/" + file, block.toString());
+        }
+        return pages;
+    }
+
+    // 每页所有区域的标记必须相同，区域数必须完整
+    static void checkPagesWhole(Map<String, String> pages, List<String> failures) {
+        for (Map.Entry<String, String> page : pages.entrySet()) {
+            String marker = null;
+            int areas = 0;
+            for (String line : page.getValue().split("\n")) {
+                if (!line.startsWith("翻译: ")) {
+                    continue;
+                }
+                areas++;
+                String current = line.substring("翻译: ".length(), line.indexOf(' ', "翻译: ".length()));
+                if (marker == null) {
+                    marker = current;
+                } else if (!marker.equals(current)) {
+                    failures.add("导出中 " + page.getKey() + " 混有两次保存的内容: " + marker + " / " + current);
+                    break;
+                }
+            }
+            if (areas != AREAS) {
+                failures.add("导出中 " + page.getKey() + " 有 " + areas + " 个区域，应为 " + AREAS);
+            }
+        }
+    }
+
+    static long percentile(List<Long> sorted, double p) {
+        return sorted.isEmpty() ? 0 : sorted.get(Math.min(sorted.size() - 1, (int) (sorted.size() * p)));
+    }
+
+    static String text(HttpResponse<byte[]> response) {
+        return new String(response.body(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,199 @@
+package comictranslator.load;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在子进程里启动服务：工作目录是给定的临时目录（uploads 建在里面），类路径沿用当前进程的，
+ * 端口随机选一个空闲的。stop 发 SIGTERM，服务的关闭钩子会写出待保存数据，和正常关闭一样。
+ * 输出写到工作目录下的 server.log。
+ */
+public final class ServerProcess implements AutoCloseable {
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(60);
+
+    private final Path workDir;
+    private final int port;
+    private final Process process;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+    private ServerProcess(Path workDir, int port, Process process) {
+        this.workDir = workDir;
+        this.port = port;
+        this.process = process;
+    }
+
+    /**
+     * 启动 mainClass，等到首页能访问为止。jvmArgs 放在类名前面，例如 -Dserver.threads=virtual。
+     */
+    public static ServerProcess startMain(Path workDir, String mainClass, String... jvmArgs) throws IOException, InterruptedException {
+        Files.createDirectories(workDir);
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Dfile.encoding=UTF-8");
+        command.add("-Dserver.port=" + port);
+        command.addAll(Arrays.asList(jvmArgs));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass);
+        Process process = new ProcessBuilder(command)
+            .directory(workDir.toFile())
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.appendTo(workDir.resolve("server.log").toFile()))
+            .start();
+        ServerProcess server = new ServerProcess(workDir, port, process);
+        server.awaitReady();
+        return server;
+    }
+
+    // 启动 ComicTranslator
+    public static ServerProcess start(Path workDir, String... jvmArgs) throws IOException, InterruptedException {
+        return startMain(workDir, "ComicTranslator", jvmArgs);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private void awaitReady() throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IOException("服务启动失败，退出码 " + process.exitValue() + "，见 " + workDir.resolve("server.log"));
+            }
+            try {
+                get("/");
+                return;
+            } catch (IOException e) {
+                Thread.sleep(200);
+            }
+        }
+        process.destroyForcibly();
+        throw new IOException("服务 " + STARTUP_TIMEOUT.getSeconds() + " 秒内没有启动，见 " + workDir.resolve("server.log"));
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public long pid() {
+        return process.pid();
+    }
+
+    public Path workDir() {
+        return workDir;
+    }
+
+    public URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+
+    public HttpClient client() {
+        return client;
+    }
+
+    public HttpResponse<byte[]> get(String path) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(uri(path)).timeout(Duration.ofMinutes(2)).build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    public HttpResponse<byte[]> post(String path, String contentType, String body) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(uri(path))
+                .timeout(Duration.ofMinutes(2))
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                .build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    // 新建分组；已存在时服务返回 400，这里不当作错误
+    public void createGroup(String group) throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = post("/new-group?groupname=" + group, "application/x-www-form-urlencoded", "");
+        if (response.statusCode() >= 500) {
+            throw new IOException("新建分组失败: " + response.statusCode());
+        }
+    }
+
+    // 上传一张图片到分组，与首页上传表单相同的 multipart 格式
+    public void upload(String group, String filename, byte[] image) throws IOException, InterruptedException {
+        String boundary = "----load" + System.nanoTime();
+        byte[] head = ("--" + boundary + "\r\nContent-Disposition: form-data; name=\"files\"; filename=\"" + filename
+            + "\"\r\nContent-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] body = new byte[head.length + image.length + tail.length];
+        System.arraycopy(head, 0, body, 0, head.length);
+        System.arraycopy(image, 0, body, head.length, image.length);
+        System.arraycopy(tail, 0, body, head.length + image.length, tail.length);
+        HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(uri("/upload/" + group))
+                .timeout(Duration.ofMinutes(2))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() >= 400) {
+            throw new IOException("上传失败: " + filename + ": " + response.statusCode());
+        }
+    }
+
+    /**
+     * 正常关闭：SIGTERM 后等进程退出，关闭钩子写出待保存数据。
+     */
+    public void stop() throws InterruptedException {
+        process.destroy();
+        if (!process.waitFor(60, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+    }
+
+    // 异常退出时也要停掉子进程；正常流程应先调用 stop
+    @Override
+    public void close() {
+        if (!process.isAlive()) {
+            return;
+        }
+        try {
+            stop();
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 删除测试用的工作目录
+    public static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,175 @@
+package comictranslator.load;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 慢客户端压力测试：slow 个客户端发完请求头和一半请求体后停 hold 秒再发完，一半是上传（multipart），
+ * 一半是 PATCH 保存；期间每 200 ms 发一个快速的 GET /api/areas，记录延迟和超时，并从 /proc 读服务进程的线程数。
+ * 分别用 -Dserver.threads=platform（Jetty 默认的有界线程池）和 virtual（每个请求一个虚拟线程）启动服务各跑一次，最后对比。
+ * 当前 JDK 不支持虚拟线程时服务会退回默认线程池，这一行会标出来。
+ *
+ * 用法：java [-Dslow=300] [-Dhold=12] [-Dmodes=platform,virtual] [-Dserver.args=...]
+ *       -cp benchmarks/target/benchmarks.jar comictranslator.load.SlowClientLoad
+ */
+public final class SlowClientLoad {
+    private static final String GROUP = "slow";
+    private static final String PAGE = "000.jpg";
+    private static final int SLOW = Integer.getInteger("slow", 300);
+    private static final int HOLD_SECONDS = Integer.getInteger("hold", 12);
+    private static final String[] MODES = System.getProperty("modes", "platform,virtual").split(",");
+    private static final Duration FAST_TIMEOUT = Duration.ofSeconds(3);
+    private static final long FAST_INTERVAL_MS = 200;
+    // 传给服务进程的额外参数，空格分隔
+    private static final String[] SERVER_ARGS = System.getProperty("server.args", "").trim().isEmpty()
+        ? new String[0] : System.getProperty("server.args").trim().split("\\s+");
+
+    private SlowClientLoad() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(SLOW + " 个慢客户端，每个停 " + HOLD_SECONDS + " 秒；快速请求超过 "
+            + FAST_TIMEOUT.getSeconds() + " 秒算超时");
+        List<String> rows = new ArrayList<>();
+        for (String mode : MODES) {
+            rows.add(run(mode.trim()));
+        }
+        System.out.println();
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    private static String run(String mode) throws Exception {
+        Path workDir = Files.createTempDirectory("slow-client-" + mode);
+        String[] jvmArgs = new String[SERVER_ARGS.length + 1];
+        jvmArgs[0] = "-Dserver.threads=" + mode;
+        System.arraycopy(SERVER_ARGS, 0, jvmArgs, 1, SERVER_ARGS.length);
+        String row;
+        try (ServerProcess server = ServerProcess.start(workDir, jvmArgs)) {
+            server.createGroup(GROUP);
+            server.post("/save/" + GROUP + "/" + PAGE, "application/json",
+                "[{\"id\":\"a0\",\"x\":10,\"y\":20,\"width\":100,\"height\":50,\"original\":\"原文\",\"translation\":\"翻译\"}]");
+            String log = new String(Files.readAllBytes(workDir.resolve("server.log")), StandardCharsets.UTF_8);
+            boolean fallback = "virtual".equals(mode) && !log.contains("请求处理使用虚拟线程");
+
+            AtomicInteger slowOk = new AtomicInteger();
+            AtomicInteger slowFailed = new AtomicInteger();
+            ExecutorService clients = Executors.newFixedThreadPool(SLOW);
+            for (int i = 0; i < SLOW; i++) {
+                int client = i;
+                clients.execute(() -> {
+                    if (slowRequest(server.port(), client)) {
+                        slowOk.incrementAndGet();
+                    } else {
+                        slowFailed.incrementAndGet();
+                    }
+                });
+            }
+            // 等慢客户端都连上、占住请求处理线程
+            Thread.sleep(1500);
+
+            List<Long> latencies = new ArrayList<>();
+            int timeouts = 0;
+            int maxThreads = 0;
+            long end = System.currentTimeMillis() + (HOLD_SECONDS - 2) * 1000L;
+            HttpRequest fast = HttpRequest.newBuilder(server.uri("/api/areas/" + GROUP + "/" + PAGE))
+                .timeout(FAST_TIMEOUT).build();
+            while (System.currentTimeMillis() < end) {
+                long t = System.nanoTime();
+                try {
+                    server.client().send(fast, HttpResponse.BodyHandlers.ofByteArray());
+                    latencies.add((System.nanoTime() - t) / 1_000_000);
+                } catch (HttpTimeoutException e) {
+                    timeouts++;
+                }
+                maxThreads = Math.max(maxThreads, threads(server.pid()));
+                Thread.sleep(FAST_INTERVAL_MS);
+            }
+            clients.shutdown();
+            clients.awaitTermination(3, TimeUnit.MINUTES);
+            server.stop();
+
+            Collections.sort(latencies);
+            row = String.format("%-8s%s 快速请求 成功 %d / 超时 %d，p50 %s ms，最大 %s ms；服务线程数最多 %s；慢请求 成功 %d / 失败 %d",
+                mode, fallback ? "（不支持虚拟线程，实际为默认线程池）" : "", latencies.size(), timeouts,
+                latencies.isEmpty() ? "-" : latencies.get(latencies.size() / 2),
+                latencies.isEmpty() ? "-" : latencies.get(latencies.size() - 1),
+                maxThreads > 0 ? maxThreads : "-", slowOk.get(), slowFailed.get());
+            System.out.println(row);
+        }
+        ServerProcess.delete(workDir);
+        return row;
+    }
+
+    /**
+     * 用裸连接发请求：先发请求头和一半请求体，停 hold 秒再发剩下的，读状态行。
+     * 偶数号上传一张小图，奇数号 PATCH 保存一个空操作列表。
+     */
+    private static boolean slowRequest(int port, int client) {
+        String head;
+        byte[] body;
+        if (client % 2 == 0) {
+            String boundary = "----slow" + client;
+            body = ("--" + boundary + "\r\nContent-Disposition: form-data; name=\"files\"; filename=\"slow" + client
+                + ".jpg\"\r\nContent-Type: image/jpeg\r\n\r\n" + "x".repeat(2000) + "\r\n--" + boundary + "--\r\n")
+                .getBytes(StandardCharsets.UTF_8);
+            head = "POST /upload/" + GROUP + " HTTP/1.1\r\nHost: localhost\r\nContent-Type: multipart/form-data; boundary="
+                + boundary + "\r\nContent-Length: " + body.length + "\r\nConnection: close\r\n\r\n";
+        } else {
+            body = "{\"base\":0,\"ops\":[]}".getBytes(StandardCharsets.UTF_8);
+            head = "PATCH /save/" + GROUP + "/slow" + client + ".jpg HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json"
+                + "\r\nContent-Length: " + body.length + "\r\nConnection: close\r\n\r\n";
+        }
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(120_000);
+            OutputStream out = socket.getOutputStream();
+            out.write(head.getBytes(StandardCharsets.UTF_8));
+            out.write(body, 0, body.length / 2);
+            out.flush();
+            Thread.sleep(HOLD_SECONDS * 1000L);
+            out.write(body, body.length / 2, body.length - body.length / 2);
+            out.flush();
+            String status = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+            // 上传成功后重定向回首页；空 PATCH 对不存在的页面可能是版本冲突，也算服务正常处理了
+            return status != null && (status.contains(" 200") || status.contains(" 302") || status.contains(" 409"));
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // 服务进程当前的线程数，只在 Linux 上能读到，读不到返回 0
+    private static int threads(long pid) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/" + pid + "/status"))) {
+                if (line.startsWith("Threads:")) {
+                    return Integer.parseInt(line.substring("Threads:".length()).trim());
+                }
+            }
+        } catch (IOException e) {
+            // 非 Linux
+        }
+        return 0;
+    }
+}
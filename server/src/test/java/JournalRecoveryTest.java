@@ -0,0 +1,206 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 日志压缩中途崩溃后留下的分组目录：快照、版本文件、压缩中的日志处在不同的写入阶段，
+ * 加载后都应得到崩溃前最后一次保存的内容和版本。
+ */
+public class JournalRecoveryTest {
+    private static final String PAGE = "P.jpg";
+    private static final String GROUP = "journal-recovery-test";
+
+    private Path group;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        group = Files.createTempDirectory("journal-recovery");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.walkFileTree(group, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // 压缩刚把日志改名为 .compacting，快照还没写
+    @Test
+    public void crashBeforeSnapshot() throws Exception {
+        write("translations.json", snapshot("OLD"));
+        write("translations.versions.json", "{\"P.jpg\":7}");
+        write("translations.journal.compacting", updateRecord(8, "NEW8") + updateRecord(10, "NEW10"));
+
+        assertPage(load(false), "NEW10", 10);
+    }
+
+    // 快照已写好，版本文件还是上一次的
+    @Test
+    public void crashBetweenSnapshotAndVersions() throws Exception {
+        write("translations.json", snapshot("NEW10"));
+        write("translations.versions.json", "{\"P.jpg\":7}");
+        write("translations.journal.compacting", updateRecord(8, "NEW8") + updateRecord(10, "NEW10"));
+
+        assertPage(load(false), "NEW10", 10);
+    }
+
+    // 崩溃后第一次加载时顺便完成压缩，再加载一次不依赖日志
+    @Test
+    public void compactOnLoadAfterCrash() throws Exception {
+        write("translations.json", snapshot("OLD"));
+        write("translations.versions.json", "{\"P.jpg\":7}");
+        write("translations.journal.compacting", updateRecord(8, "NEW8") + updateRecord(10, "NEW10"));
+        write("translations.journal", updateRecord(11, "NEW11"));
+
+        assertPage(load(true), "NEW11", 11);
+        assertFalse(Files.exists(group.resolve("translations.journal.compacting")));
+        assertFalse(Files.exists(group.resolve("translations.journal")));
+        assertPage(load(false), "NEW11", 11);
+    }
+
+    // 让版本文件写入失败，模拟两次写入之间崩溃：快照必须已经是新内容，旧版本号只会导致日志重放
+    @Test
+    public void snapshotIsWrittenBeforeVersions() throws Exception {
+        write("translations.json", snapshot("OLD"));
+        write("translations.versions.json", "{\"P.jpg\":7}");
+        write("translations.journal.compacting", updateRecord(8, "NEW8") + updateRecord(10, "NEW10"));
+        Map<String, List<ComicTranslator.TranslationArea>> current = load(false);
+        Files.createDirectory(group.resolve("translations.versions.json.tmp"));
+
+        assertThrows(IOException.class, () -> writeSnapshot(current));
+
+        assertTrue(read("translations.json").contains("NEW10"));
+        assertEquals("{\"P.jpg\":7}", read("translations.versions.json"));
+        Files.delete(group.resolve("translations.versions.json.tmp"));
+        assertPage(load(false), "NEW10", 10);
+    }
+
+    // 上次压缩失败留下了 .compacting，这次压缩写快照时又崩溃：不能用新日志覆盖它，两份日志的记录都要还在
+    @Test
+    public void compactionKeepsLeftoverCompactingFile() throws Exception {
+        write("translations.json", snapshot("OLD"));
+        write("translations.versions.json", "{\"P.jpg\":7}");
+        String leftover = updateRecord(8, "NEW8") + updateRecord(10, "NEW10");
+        write("translations.journal.compacting", leftover);
+        write("translations.journal", updateRecord("Q.jpg", 1, "Q1"));
+        Map<String, Map<String, List<ComicTranslator.TranslationArea>>> translations = translations();
+        translations.put(GROUP, load(false));
+        try {
+            Files.createDirectory(group.resolve("translations.json.tmp"));
+            compact();
+
+            assertEquals(leftover, read("translations.journal.compacting"));
+            Files.delete(group.resolve("translations.json.tmp"));
+            Map<String, List<ComicTranslator.TranslationArea>> afterCrash = load(false);
+            assertPage(afterCrash, "NEW10", 10);
+            assertEquals("Q1", afterCrash.get("Q.jpg").get(0).translation);
+
+            // 下一次压缩成功：快照包含两份日志的内容，.compacting 删掉
+            compact();
+            assertFalse(Files.exists(group.resolve("translations.journal.compacting")));
+            assertTrue(read("translations.json").contains("NEW10"));
+            assertTrue(read("translations.json").contains("Q1"));
+            assertPage(load(false), "NEW10", 10);
+        } finally {
+            translations.remove(GROUP);
+        }
+    }
+
+    private static String snapshot(String translation) {
+        return "{\"P.jpg\":[" + area(translation) + "]}";
+    }
+
+    private static String area(String translation) {
+        return "{\"id\":\"a0\",\"x\":10,\"y\":20,\"width\":100,\"height\":50,\"original\":\"原文\",\"translation\":\"" + translation + "\"}";
+    }
+
+    private static String updateRecord(long version, String translation) {
+        return updateRecord(PAGE, version, translation);
+    }
+
+    private static String updateRecord(String file, long version, String translation) {
+        return "{\"file\":\"" + file + "\",\"version\":" + version + ",\"ops\":[{\"op\":\"update\",\"area\":" + area(translation) + "}]}\n";
+    }
+
+    private void write(String name, String content) throws IOException {
+        Files.write(group.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String name) throws IOException {
+        return new String(Files.readAllBytes(group.resolve(name)), StandardCharsets.UTF_8);
+    }
+
+    private static void assertPage(Map<String, List<ComicTranslator.TranslationArea>> pages, String translation, long version) {
+        List<ComicTranslator.TranslationArea> areas = pages.get(PAGE);
+        assertEquals(1, areas.size());
+        assertEquals(translation, areas.get(0).translation);
+        assertEquals(version, ComicTranslator.pageVersion(areas));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, List<ComicTranslator.TranslationArea>> load(boolean compact) throws Exception {
+        return (Map<String, List<ComicTranslator.TranslationArea>>) invoke("loadGroup",
+            new Class<?>[] { Path.class, boolean.class }, group, compact);
+    }
+
+    private void writeSnapshot(Map<String, List<ComicTranslator.TranslationArea>> pages) throws Exception {
+        invoke("writeSnapshot", new Class<?>[] { Path.class, Map.class }, group, pages);
+    }
+
+    // 以 GROUP 为名对 group 目录执行一次日志压缩（失败只打印日志，与后台压缩相同）
+    private void compact() throws Exception {
+        Class<?> journalClass = ComicTranslator.GroupJournal.class;
+        Constructor<?> constructor = journalClass.getDeclaredConstructor(String.class, Path.class);
+        constructor.setAccessible(true);
+        Object journal = constructor.newInstance(GROUP, group);
+        Method compact = journalClass.getDeclaredMethod("compact");
+        compact.setAccessible(true);
+        compact.invoke(journal);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, List<ComicTranslator.TranslationArea>>> translations() throws Exception {
+        Field field = ComicTranslator.class.getDeclaredField("translations");
+        field.setAccessible(true);
+        return (Map<String, Map<String, List<ComicTranslator.TranslationArea>>>) field.get(null);
+    }
+
+    private static Object invoke(String name, Class<?>[] types, Object... args) throws Exception {
+        Method method = ComicTranslator.class.getDeclaredMethod(name, types);
+        method.setAccessible(true);
+        try {
+            return method.invoke(null, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 收编分组目录里散落的图片时写清单失败：图片可能是唯一的一份，必须留在原处，下次还能再收编。
+ * 图片存储用的是工作目录下的 uploads，测试只删除自己建的分组和对象。
+ */
+public class ObjectStoreTest {
+    private static final byte[] IMAGE = "不是真的图片，只测存储".getBytes(StandardCharsets.UTF_8);
+
+    private final Path uploads = Paths.get("uploads");
+    private final String group = "object-store-test-" + System.nanoTime();
+    private boolean createdUploads;
+    private String digest;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        createdUploads = !Files.exists(uploads);
+        Files.createDirectories(uploads.resolve(group));
+        digest = ComicTranslator.ObjectStore.hex(ComicTranslator.ObjectStore.sha256().digest(IMAGE));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        delete(uploads.resolve(group));
+        delete(uploads.resolve(group + "-2"));
+        Files.deleteIfExists(ComicTranslator.ObjectStore.objectPath(digest));
+        if (createdUploads) {
+            delete(uploads);
+        }
+    }
+
+    @Test
+    public void failedImportKeepsLooseFile() throws IOException {
+        ComicTranslator.ObjectStore store = new ComicTranslator.ObjectStore();
+        Path loose = uploads.resolve(group).resolve("p.jpg");
+        Files.write(loose, IMAGE);
+        Path blocker = Files.createDirectory(uploads.resolve(group).resolve(".manifest.json.tmp"));
+
+        assertThrows(IOException.class, () -> store.importLoose(group));
+        assertTrue(Files.exists(loose));
+        assertEquals(new String(IMAGE, StandardCharsets.UTF_8), new String(Files.readAllBytes(loose), StandardCharsets.UTF_8));
+        assertFalse(Files.exists(ComicTranslator.ObjectStore.objectPath(digest)));
+        assertNull(store.entry(group, "p.jpg"));
+
+        Files.delete(blocker);
+        store.importLoose(group);
+        assertNotNull(store.entry(group, "p.jpg"));
+        assertFalse(Files.exists(loose));
+        assertTrue(Files.exists(ComicTranslator.ObjectStore.objectPath(digest)));
+    }
+
+    // 相同内容的对象已被别的分组引用：失败时对象和散落的文件都要还在
+    @Test
+    public void failedImportOfSharedObjectKeepsBoth() throws IOException {
+        ComicTranslator.ObjectStore store = new ComicTranslator.ObjectStore();
+        Files.write(uploads.resolve(group).resolve("p.jpg"), IMAGE);
+        store.importLoose(group);
+
+        Path other = Files.createDirectories(uploads.resolve(group + "-2"));
+        Path loose = other.resolve("q.jpg");
+        Files.write(loose, IMAGE);
+        Files.createDirectory(other.resolve(".manifest.json.tmp"));
+
+        assertThrows(IOException.class, () -> store.importLoose(group + "-2"));
+        assertTrue(Files.exists(loose));
+        assertTrue(Files.exists(ComicTranslator.ObjectStore.objectPath(digest)));
+        assertNotNull(store.entry(group, "p.jpg"));
+    }
+
+    private static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,52 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 整页保存时补全的区域编号不能和请求里已有的编号重复，否则之后的增量保存会改错区域。
+ */
+public class PageIdsTest {
+    @Test
+    public void generatedIdDoesNotCollideWithExplicitId() {
+        List<ComicTranslator.TranslationArea> areas = new ArrayList<>(Arrays.asList(area("a1", "甲"), area(null, "乙"), area("", "丙")));
+        ComicTranslator.PackedPage.assignIds(areas);
+        assertEquals("a1", areas.get(0).id);
+        assertEquals("a1-1", areas.get(1).id);
+        assertEquals("a2", areas.get(2).id);
+
+        ComicTranslator.PackedPage page = ComicTranslator.PackedPage.of(areas, 1);
+        ComicTranslator.PackedPage updated = page.apply(Collections.singletonList(update(area("a1", "改"))), 2, true);
+        assertEquals("改", updated.get(0).translation);
+        assertEquals("乙", updated.get(1).translation);
+        assertEquals(3, updated.size());
+    }
+
+    @Test
+    public void duplicateExplicitIdsAreRejected() {
+        List<ComicTranslator.TranslationArea> areas = new ArrayList<>(Arrays.asList(area("a0", "甲"), area("a0", "乙")));
+        assertThrows(IllegalArgumentException.class, () -> ComicTranslator.PackedPage.assignIds(areas));
+    }
+
+    private static ComicTranslator.AreaOp update(ComicTranslator.TranslationArea area) {
+        ComicTranslator.AreaOp op = new ComicTranslator.AreaOp();
+        op.op = "update";
+        op.area = area;
+        return op;
+    }
+
+    private static ComicTranslator.TranslationArea area(String id, String translation) {
+        ComicTranslator.TranslationArea area = new ComicTranslator.TranslationArea();
+        area.id = id;
+        area.width = 100;
+        area.height = 50;
+        area.original = "原文";
+        area.translation = translation;
+        return area;
+    }
+}
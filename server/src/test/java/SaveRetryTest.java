@@ -0,0 +1,109 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 合并写入失败时页面已经提交到内存：不能让保存请求以失败结束，
+ * 页面要保持待写，磁盘恢复后重试写入，等待的请求随之成功。
+ * 分组目录用的是工作目录下的 uploads，测试只删除自己建的分组。
+ */
+public class SaveRetryTest {
+    private final Path uploads = Paths.get("uploads");
+    private final String group = "save-retry-test-" + System.nanoTime();
+    private boolean createdUploads;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        createdUploads = !Files.exists(uploads);
+        Files.createDirectories(uploads.resolve(group));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        closeJournal();
+        delete(uploads.resolve(group));
+        if (createdUploads) {
+            delete(uploads);
+        }
+    }
+
+    @Test
+    public void failedFlushIsRetried() throws Exception {
+        ComicTranslator.SaveCoalescer coalescer = new ComicTranslator.SaveCoalescer();
+        CompletableFuture<Long> first = coalescer.submit(group, "p0.jpg", areas("已写入"));
+        assertTrue(coalescer.flush(group));
+        first.get(10, TimeUnit.SECONDS);
+
+        // 分组已在内存里；关掉日志，把日志文件的位置用目录占住，再打开日志就会失败
+        closeJournal();
+        Path journalFile = uploads.resolve(group).resolve("translations.journal");
+        Files.delete(journalFile);
+        Path blocker = Files.createDirectory(journalFile);
+
+        CompletableFuture<Long> written = coalescer.submit(group, "p.jpg", areas("第一次"));
+        assertFalse(coalescer.flush(group));
+        assertFalse(written.isDone());
+        assertTrue(coalescer.hasPending(group));
+
+        Files.delete(blocker);
+        long version = written.get(10, TimeUnit.SECONDS);
+        assertEquals(1L, version);
+        assertFalse(coalescer.hasPending(group));
+        String journal = new String(Files.readAllBytes(journalFile), StandardCharsets.UTF_8);
+        assertTrue(journal.contains("第一次"));
+    }
+
+    private void closeJournal() throws Exception {
+        Method closeJournal = ComicTranslator.class.getDeclaredMethod("closeJournal", String.class);
+        closeJournal.setAccessible(true);
+        closeJournal.invoke(null, group);
+    }
+
+    private static List<ComicTranslator.TranslationArea> areas(String translation) {
+        ComicTranslator.TranslationArea area = new ComicTranslator.TranslationArea();
+        area.id = "a0";
+        area.width = 100;
+        area.height = 50;
+        area.original = "原文";
+        area.translation = translation;
+        return new ArrayList<>(Collections.singletonList(area));
+    }
+
+    private static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
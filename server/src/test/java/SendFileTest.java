@@ -0,0 +1,56 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 发送大图后文件要能立刻删除：Windows 上映射着的文件删不掉，所以发送时不能留下内存映射。
+ */
+public class SendFileTest {
+    private Path dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("send-file");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir.resolve("large.jpg"));
+        Files.delete(dir);
+    }
+
+    @Test
+    public void largeFileCanBeDeletedAfterServing() throws IOException {
+        byte[] image = new byte[4 * 1024 * 1024];
+        new Random(42).nextBytes(image);
+        Path file = dir.resolve("large.jpg");
+        Files.write(file, image);
+
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        ComicTranslator.sendFile(whole, file, 0, image.length);
+        assertArrayEquals(image, whole.toByteArray());
+
+        ByteArrayOutputStream range = new ByteArrayOutputStream();
+        ComicTranslator.sendFile(range, file, 1000, 512 * 1024);
+        assertArrayEquals(Arrays.copyOfRange(image, 1000, 1000 + 512 * 1024), range.toByteArray());
+
+        // Linux 上删除不受映射影响，直接查进程的映射表
+        Path maps = Paths.get("/proc/self/maps");
+        if (Files.isReadable(maps)) {
+            assertFalse(new String(Files.readAllBytes(maps)).contains(file.toString()), "发送后文件仍映射在内存里");
+        }
+        Files.delete(file);
+        assertFalse(Files.exists(file));
+    }
+}
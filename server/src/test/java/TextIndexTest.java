@@ -0,0 +1,137 @@
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 搜索索引和翻译记忆只记页面位置、不持有页面：查询经页面来源取回当前内容，
+ * 反复保存后压缩会收回作废的编号，结果和压缩前一致。
+ */
+public class TextIndexTest {
+    private static final int PAGES = 1000;
+    private static final int AREAS = 10;
+
+    // 分组 → 文件 → 当前页面，充当分组缓存
+    private final Map<String, Map<String, List<ComicTranslator.TranslationArea>>> store = new HashMap<>();
+
+    private final ComicTranslator.SearchIndex index = new ComicTranslator.SearchIndex(
+        (group, file) -> store.getOrDefault(group, new HashMap<>()).getOrDefault(file, new ArrayList<>()));
+
+    // 作废区域累计超过压缩下限（10 万）且多于有效区域后，页面和区域重新编号
+    @Test
+    public void compactionReclaimsDeadSlots() throws Exception {
+        for (int revision = 0; revision <= 11; revision++) {
+            for (int p = 0; p < PAGES; p++) {
+                save("G", "p" + p + ".jpg", page(p, revision));
+            }
+        }
+
+        // 第 10 轮保存完压缩一次，只剩第 11 轮作废的一份；不收回时是 12 份
+        assertEquals(2 * PAGES, field("docCount"));
+        assertEquals(2 * PAGES * AREAS, field("areaCount"));
+        assertEquals(PAGES * AREAS, index.search("rev11", null, 1, 20).total);
+        assertEquals(0, index.search("rev10", null, 1, 20).total);
+
+        ComicTranslator.SearchIndex.Hit hit = index.search("台词7x3", null, 1, 20).hits.get(0);
+        assertEquals("p7.jpg", hit.file);
+        assertEquals(3, hit.index);
+        assertEquals(30, hit.x);
+        assertEquals("rev11 台词7x3", hit.translation);
+
+        // 压缩后继续保存，新编号接在后面
+        save("G", "p7.jpg", page(7, 12));
+        assertEquals(AREAS, index.search("rev12", null, 1, 20).total);
+        assertEquals(PAGES * AREAS - AREAS, index.search("rev11", null, 1, 20).total);
+    }
+
+    // 三个字以上的中文查询只靠 bigram 近似，要取回页面核对原文
+    @Test
+    public void longTermsAreVerifiedAgainstCurrentPage() {
+        save("G", "a.jpg", areas("东京塔下", "x"));
+        save("G", "b.jpg", areas("京塔东京", "y"));
+
+        assertEquals(1, index.search("东京塔", null, 1, 20).total);
+        assertEquals(2, index.search("东京", null, 1, 20).total);
+        assertEquals(0, index.search("东塔", null, 1, 20).total);
+        assertEquals("a.jpg", index.search("东京塔", null, 1, 20).hits.get(0).file);
+    }
+
+    @Test
+    public void renameAndRemoveGroup() {
+        save("G", "a.jpg", areas("东京", "tokyo"));
+        save("H", "a.jpg", areas("东京", "tokyo"));
+
+        store.put("G2", store.remove("G"));
+        index.renameGroup("G", "G2");
+        assertEquals("G2", index.search("tokyo", "G2", 1, 20).hits.get(0).group);
+        assertEquals(0, index.search("tokyo", "G", 1, 20).total);
+
+        store.remove("H");
+        index.removeGroup("H");
+        assertEquals(1, index.search("tokyo", null, 1, 20).total);
+    }
+
+    @Test
+    public void memoryUndoesReplacedAndRemovedPages() {
+        ComicTranslator.TranslationMemory memory = new ComicTranslator.TranslationMemory();
+        memory.replace("G", "a.jpg", areas("おはよう", "早上好"));
+        memory.replace("H", "a.jpg", areas("おはよう", "早上好"));
+        memory.replace("G", "a.jpg", areas("おはよう", "早安"));
+
+        List<ComicTranslator.TranslationMemory.Choice> choices = memory.suggest("おはよう", 5, 0.5).suggestions.get(0).translations;
+        assertEquals(2, choices.size());
+        assertEquals(1, choices.get(0).count);
+        assertEquals(1, choices.get(1).count);
+
+        memory.renameGroup("G", "G2");
+        memory.removeGroup("G2");
+        choices = memory.suggest("おはよう", 5, 0.5).suggestions.get(0).translations;
+        assertEquals(1, choices.size());
+        assertEquals("早上好", choices.get(0).text);
+
+        memory.removeGroup("H");
+        assertTrue(memory.suggest("おはよう", 5, 0.5).suggestions.isEmpty());
+        assertEquals(0, memory.sources());
+    }
+
+    private void save(String group, String file, List<ComicTranslator.TranslationArea> page) {
+        store.computeIfAbsent(group, g -> new HashMap<>()).put(file, page);
+        index.replace(group, file, page);
+    }
+
+    private static List<ComicTranslator.TranslationArea> page(int page, int revision) {
+        List<ComicTranslator.TranslationArea> areas = new ArrayList<>();
+        for (int i = 0; i < AREAS; i++) {
+            areas.add(area(i * 10, "台词" + page + "x" + i, "rev" + revision + " 台词" + page + "x" + i));
+        }
+        return areas;
+    }
+
+    private static List<ComicTranslator.TranslationArea> areas(String original, String translation) {
+        List<ComicTranslator.TranslationArea> areas = new ArrayList<>();
+        areas.add(area(0, original, translation));
+        return areas;
+    }
+
+    private static ComicTranslator.TranslationArea area(int x, String original, String translation) {
+        ComicTranslator.TranslationArea area = new ComicTranslator.TranslationArea();
+        area.x = x;
+        area.width = 100;
+        area.height = 50;
+        area.original = original;
+        area.translation = translation;
+        return area;
+    }
+
+    private int field(String name) throws Exception {
+        Field field = ComicTranslator.SearchIndex.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.getInt(index);
+    }
+}
@@ -1 +1,2 @@
+if not exist assets\fabric.min.js (echo assets\fabric.min.js is missing, it is committed with the source - please check out the repository again & exit /b 1)
 javac -cp "lib/*" -encoding UTF-8 ComicTranslator.java
\ No newline at end of file